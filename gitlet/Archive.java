@@ -0,0 +1,187 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * archive: the files of a commit as a tar stream, read from the object store, so the
+ * working tree and the index are never touched.
+ *
+ * Entries are POSIX ustar, in path order, with the commit time as their mtime. A path
+ * too long for the ustar name and prefix fields, or a file of 8 GiB or more, gets a pax
+ * extended header before its entry.
+ *
+ * Reads are pipelined with the writes: a reader thread loads the next blobs while the
+ * current one is written, at most PREFETCH of them ahead. Only blobs up to SMALL_BLOB bytes
+ * are loaded whole; bigger ones, chunked blobs included, are copied to the output when
+ * their turn comes. Memory stays below PREFETCH * SMALL_BLOB whatever the size of the commit.
+ */
+public class Archive {
+    private static final int BLOCK = 512;
+    private static final int PREFETCH = 16;
+    private static final long SMALL_BLOB = 1 << 20;
+    /** Largest size the 11 octal digits of a ustar header hold. */
+    private static final long MAX_USTAR_SIZE = 077777777777L;
+
+    /** A file of the commit, and its content once read ahead. */
+    private static class Item {
+        final String path;
+        final File blobFile;
+        final long size;
+        /** Null if the blob is streamed when written. */
+        final Future<byte[]> content;
+
+        Item(String path, File blobFile, long size, Future<byte[]> content) {
+            this.path = path;
+            this.blobFile = blobFile;
+            this.size = size;
+            this.content = content;
+        }
+    }
+
+    /**
+     * Write the files of COMMIT to OUT as a tar archive, without closing OUT.
+     */
+    static void write(Commit commit, OutputStream out) {
+        TreeMap<String, String> files = new TreeMap<>(commit.getBlobsMap());
+        // A partial clone fetches all missing blobs in one batch instead of one at a time.
+        Promisor.prefetch(files.values());
+        long mtime = commit.getTime().getTime() / 1000;
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        Deque<Item> pending = new ArrayDeque<>();
+        try {
+            for (Map.Entry<String, String> file : files.entrySet()) {
+                if (pending.size() == PREFETCH) writeEntry(out, pending.poll(), mtime);
+                File blobFile = Promisor.objectFile(file.getValue());
+                if (!blobFile.isFile()) throw Utils.error("Missing blob %s.", file.getValue());
+                boolean chunked = Chunker.isManifest(blobFile);
+                long size = chunked ? chunkedSize(blobFile) : blobFile.length();
+                Future<byte[]> content = (chunked || size > SMALL_BLOB)
+                        ? null : reader.submit(() -> Files.readAllBytes(blobFile.toPath()));
+                pending.add(new Item(file.getKey(), blobFile, size, content));
+            }
+            while (!pending.isEmpty()) writeEntry(out, pending.poll(), mtime);
+            // The end of an archive: two zero blocks.
+            out.write(new byte[2 * BLOCK]);
+            out.flush();
+        } catch (IOException e) {
+            throw Utils.error(e.getMessage());
+        } finally {
+            reader.shutdownNow();
+        }
+    }
+
+    /** @return the size of the content a chunk manifest describes. */
+    private static long chunkedSize(File manifestFile) {
+        long size = 0;
+        for (String chunk : Chunker.chunkIds(manifestFile)) size += Promisor.objectFile(chunk).length();
+        return size;
+    }
+
+    private static void writeEntry(OutputStream out, Item item, long mtime) throws IOException {
+        writeHeaders(out, item.path, item.size, mtime);
+        if (item.content != null) {
+            try {
+                out.write(item.content.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw Utils.error("archive interrupted");
+            } catch (ExecutionException e) {
+                throw Utils.error(e.getCause().getMessage());
+            }
+        } else {
+            Blob.copyTo(item.blobFile, out);
+        }
+        pad(out, item.size);
+    }
+
+    /** Write the header of a regular file, preceded by a pax header if ustar cannot describe it. */
+    private static void writeHeaders(OutputStream out, String path, long size, long mtime) throws IOException {
+        byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+        int split = splitPoint(pathBytes);
+        List<String> pax = new ArrayList<>();
+        if (split < 0) pax.add(paxRecord("path", path));
+        if (size > MAX_USTAR_SIZE) pax.add(paxRecord("size", Long.toString(size)));
+        if (!pax.isEmpty()) {
+            byte[] records = String.join("", pax).getBytes(StandardCharsets.UTF_8);
+            out.write(header(("PaxHeaders/" + path).getBytes(StandardCharsets.UTF_8), new byte[0],
+                    records.length, mtime, 'x'));
+            out.write(records);
+            pad(out, records.length);
+        }
+        byte[] name = pathBytes, prefix = new byte[0];
+        if (split > 0) {
+            name = Arrays.copyOfRange(pathBytes, split + 1, pathBytes.length);
+            prefix = Arrays.copyOfRange(pathBytes, 0, split);
+        } else if (split < 0) {
+            name = Arrays.copyOf(pathBytes, 100);
+        }
+        out.write(header(name, prefix, Math.min(size, MAX_USTAR_SIZE), mtime, '0'));
+    }
+
+    /**
+     * @return 0 if PATH fits the name field, the index of the '/' that splits it into
+     *         prefix and name, or -1 if it needs a pax header.
+     */
+    private static int splitPoint(byte[] path) {
+        if (path.length <= 100) return 0;
+        for (int i = Math.min(path.length - 1, 155); i > 0; i--) {
+            if (path[i] == '/' && path.length - i - 1 <= 100) return i;
+        }
+        return -1;
+    }
+
+    /** @return the pax record "[length] [key]=[value]\n", its length counting its own digits. */
+    private static String paxRecord(String key, String value) {
+        int length = (" " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8).length;
+        int total = length + Integer.toString(length).length();
+        if (Integer.toString(total).length() > Integer.toString(length).length()) total++;
+        return total + " " + key + "=" + value + "\n";
+    }
+
+    private static byte[] header(byte[] name, byte[] prefix, long size, long mtime, char type) {
+        byte[] header = new byte[BLOCK];
+        System.arraycopy(name, 0, header, 0, Math.min(name.length, 100));
+        octal(header, 100, 8, 0644);
+        octal(header, 108, 8, 0);
+        octal(header, 116, 8, 0);
+        octal(header, 124, 12, size);
+        octal(header, 136, 12, mtime);
+        header[156] = (byte) type;
+        System.arraycopy("ustar\00000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+        System.arraycopy(prefix, 0, header, 345, Math.min(prefix.length, 155));
+        // The checksum is computed with its own field as spaces.
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        long checksum = 0;
+        for (byte b : header) checksum += b & 0xff;
+        octal(header, 148, 7, checksum);
+        return header;
+    }
+
+    /** Write VALUE in octal, zero-padded, NUL-terminated, in the LENGTH bytes at OFFSET. */
+    private static void octal(byte[] header, int offset, int length, long value) {
+        String digits = String.format("%0" + (length - 1) + "o", value);
+        System.arraycopy(digits.getBytes(StandardCharsets.US_ASCII), 0, header, offset, length - 1);
+        header[offset + length - 1] = 0;
+    }
+
+    /** Fill the last block of SIZE bytes of content with zeros. */
+    private static void pad(OutputStream out, long size) throws IOException {
+        int rest = (int) (size % BLOCK);
+        if (rest != 0) out.write(new byte[BLOCK - rest]);
+    }
+}
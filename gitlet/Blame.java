@@ -0,0 +1,89 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Line attribution along the first-parent chain.
+ * Only lines not yet attributed are carried backwards, each as its position in the
+ * version being examined. Commits that did not change the file are skipped through the
+ * commit-graph without reading them, and a diff is only run where the blob changed.
+ * The walk stops as soon as every requested line is attributed.
+ */
+public class Blame {
+    /**
+     * Attribute lines [from, to) of PATH in the given commit.
+     * @param commitId full id of the commit to start from, must contain PATH.
+     * @param path file name
+     * @param from first line, 0-based, inclusive.
+     * @param to last line, 0-based, exclusive.
+     * @return for each line in [from, to), the id of the commit that introduced it.
+     */
+    static String[] blame(String commitId, String path, int from, int to) {
+        String[] result = new String[to - from];
+        // pending[k] is the position in the current version of final line (from + k).
+        List<int[]> pending = new ArrayList<>();
+        for (int line = from; line < to; line++) pending.add(new int[]{line - from, line});
+
+        String currentId = commitId;
+        String currentBlob = Commit.readObject(commitId).getBlobsMap().get(path);
+        List<String> currentLines = null;
+        while (!pending.isEmpty()) {
+            CommitGraph.Entry entry = CommitGraph.get(currentId);
+            String parentId = entry.parent1;
+            // The filter rules out a change: the parent has the same blob, nothing moves.
+            if (parentId != null && !entry.mayHaveChanged(path)) {
+                currentId = parentId;
+                continue;
+            }
+            Commit parent = Commit.readObject(parentId);
+            String parentBlob = (parent == null) ? null : parent.getBlobsMap().get(path);
+            if (parentBlob == null) {
+                // The file starts here: everything left belongs to this commit.
+                for (int[] line : pending) result[line[0]] = currentId;
+                break;
+            }
+            if (parentBlob.equals(currentBlob)) {
+                currentId = parentId;
+                continue;
+            }
+
+            if (currentLines == null) currentLines = Diff.splitLines(Blob.readFile(currentBlob));
+            List<String> parentLines = Diff.splitLines(Blob.readFile(parentBlob));
+            pending = carryToParent(pending, Diff.diff(parentLines, currentLines), result, currentId);
+            currentId = parentId;
+            currentBlob = parentBlob;
+            currentLines = parentLines;
+        }
+        return result;
+    }
+
+    /**
+     * Attribute pending lines inside changed regions to the current commit,
+     * and move the others to their position in the parent.
+     * @param pending sorted by position in the current version
+     * @param edits edits from the parent version to the current version
+     * @return the lines still unattributed, with parent positions.
+     */
+    private static List<int[]> carryToParent(List<int[]> pending, List<Diff.Edit> edits,
+                                             String[] result, String currentId) {
+        List<int[]> carried = new ArrayList<>();
+        int e = 0;
+        // Parent position = current position - shift, where shift grows after each edit.
+        int shift = 0;
+        for (int[] line : pending) {
+            int pos = line[1];
+            while (e < edits.size() && edits.get(e).endB <= pos) {
+                Diff.Edit edit = edits.get(e);
+                shift += (edit.endB - edit.beginB) - (edit.endA - edit.beginA);
+                e++;
+            }
+            if (e < edits.size() && edits.get(e).beginB <= pos) {
+                result[line[0]] = currentId;
+            } else {
+                carried.add(new int[]{line[0], pos - shift});
+            }
+        }
+        return carried;
+    }
+}
@@ -1,40 +1,133 @@
 package gitlet;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.List;
 
 public class Blob implements Serializable {
     public static String getFileContent(String filename) {
-        File f = new File("./" + filename);
+        File f = Repository.file("./" + filename);
         return Utils.readContentsAsString(f);
     }
 
+    /**
+     * Hash a working file without loading it, see FileHash for the tuning knobs.
+     * @param filename File name in working directory, must exist.
+     * @return object id of the file's bytes
+     */
     public static String getFileHash(String filename) {
-        return Utils.sha1(getFileContent(filename));
+        return FileHash.objectId(Repository.file("./" + filename));
     }
 
     /**
      * Write the file in working-directory to .gitlet directory
+     * Files above Chunker.THRESHOLD are stored as a manifest of shared chunks.
      * @param filename File name in working directory, must exist.
-     * @return SHA1 for the String of given filename's content
+     * @return SHA1 of the given filename's content
      */
     public static String writeFile(String filename) {
-        String fileHash = getFileHash(filename);
-        String fileContent = getFileContent(filename);
-        File f = new File(Gitlet.OBJECT_PATH + fileHash);
-        if (!f.exists()) Utils.writeContents(f, fileContent);
+        return writeFile(filename, getFileHash(filename));
+    }
+
+    /**
+     * Write a working file whose object id is already known, unless .gitlet has the object.
+     * @param filename File name in working directory, must exist.
+     * @param fileHash object id of the file's bytes
+     * @return fileHash
+     */
+    public static String writeFile(String filename, String fileHash) {
+        File f = Repository.file(Gitlet.OBJECT_PATH + fileHash);
+        if (!ObjectFilter.exists(fileHash)) {
+            File source = Repository.file("./" + filename);
+            if (Chunker.shouldChunk(source)) {
+                Chunker.writeChunked(source, f);
+            } else {
+                Utils.writeContents(f, Utils.readContents(source));
+            }
+            ObjectFilter.recordWrite(fileHash);
+        }
         return fileHash;
     }
 
+    /**
+     * Write content that exists only in memory, e.g. a merge result, to .gitlet directory
+     * @param content bytes of the blob
+     * @return object id of the content
+     */
+    public static String writeBytes(byte[] content) {
+        String hash = HashAlgorithm.current().hash(content);
+        if (!ObjectFilter.exists(hash)) {
+            Utils.writeContents(Repository.file(Gitlet.OBJECT_PATH + hash), content);
+            ObjectFilter.recordWrite(hash);
+        }
+        return hash;
+    }
+
     /**
      * Read file from .gitlet directory
      * @param sha1 the SHA1 hash of target file
      * @return content string inside the target file.
      */
     public static String readFile(String sha1) {
-        File targetFile = new File(Gitlet.OBJECT_PATH + sha1);
-        return Utils.readContentsAsString(targetFile);
+        File targetFile = Promisor.objectFile(sha1);
+        if (!Chunker.isManifest(targetFile)) return Utils.readContentsAsString(targetFile);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        copyTo(targetFile, out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read a blob like readFile, without storing anything: a blob or chunk missing from
+     * a partial clone is read from the promisor remote, not fetched.
+     * @param sha1 the SHA1 hash of target file
+     * @return content string inside the target file.
+     */
+    static String peekFile(String sha1) {
+        File targetFile = Promisor.peekObjectFile(sha1);
+        if (!Chunker.isManifest(targetFile)) return Utils.readContentsAsString(targetFile);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            Chunker.reassemble(targetFile, out, Promisor::peekObjectFile);
+        } catch (IOException e) {
+            throw Utils.error(e.getMessage());
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Stream the content of a blob object, reassembling chunked blobs on the way.
+     * @param blobFile object file of the blob, must exist.
+     * @param out destination of the content
+     */
+    static void copyTo(File blobFile, OutputStream out) {
+        try {
+            if (Chunker.isManifest(blobFile)) {
+                Chunker.reassemble(blobFile, out);
+            } else {
+                Files.copy(blobFile.toPath(), out);
+            }
+        } catch (IOException e) {
+            throw Utils.error(e.getMessage());
+        }
+    }
+
+    /**
+     * Write the content of a blob object to a file in the working directory.
+     * @param blobFile object file of the blob, must exist.
+     * @param actualFile file to be created or overwritten, with any missing directories.
+     */
+    static void writeToFile(File blobFile, File actualFile) {
+        WorkTree.createParents(actualFile);
+        try (OutputStream out = Files.newOutputStream(actualFile.toPath())) {
+            copyTo(blobFile, out);
+        } catch (IOException e) {
+            throw Utils.error(e.getMessage());
+        }
     }
 
     /**
@@ -44,8 +137,8 @@ public class Blob implements Serializable {
      * @param fileName filename in the working directory to be overwritten.
      */
     public static void writeBackFromGit(String sha1, String fileName) {
-        if (sha1.length() != Gitlet.SHA1_LENGTH) {
-            List<String> objNameList = Utils.plainFilenamesIn(Gitlet.OBJECT_PATH);
+        if (sha1.length() != HashAlgorithm.current().hexLength()) {
+            List<String> objNameList = Utils.plainFilenamesIn(Repository.file(Gitlet.OBJECT_PATH));
             for (String objName : objNameList) {
                 if (objName.contains(sha1)) {
                     sha1 = objName;
@@ -53,10 +146,8 @@ public class Blob implements Serializable {
                 }
             }
         }
-        File blobFile = new File(Gitlet.OBJECT_PATH + sha1);
+        File blobFile = Promisor.objectFile(sha1);
         if (!blobFile.exists()) { Utils.error("writeBackFromGit Failed."); }
-        String contents = Utils.readContentsAsString(blobFile);
-        File actualFile = new File("./" + fileName);
-        Utils.writeContents(actualFile, contents);
+        writeToFile(blobFile, Repository.file("./" + fileName));
     }
 }
@@ -0,0 +1,178 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * FastCDC-style content-defined chunking for large blobs.
+ * A file above the threshold is cut at content-defined boundaries, every chunk is stored
+ * as its own object keyed by the hash of its bytes, and the blob object becomes a manifest:
+ *  "\0gitlet-chunks\n" followed by one chunk id per line.
+ * Identical chunks are shared across versions and files, so a small edit in a
+ * large file only stores the few chunks around it.
+ */
+public class Chunker {
+    /** Files at least this large are chunked, override with -Dgitlet.chunkThreshold=BYTES. */
+    public static final long THRESHOLD = Long.getLong("gitlet.chunkThreshold", 16L << 20);
+    public static final int MIN_SIZE = 2 << 10;
+    public static final int AVG_SIZE = 8 << 10;
+    public static final int MAX_SIZE = 64 << 10;
+    /** Chunks hashed in parallel per batch, bounds the memory used while chunking. */
+    private static final int BATCH_SIZE = 64;
+    private static final String MANIFEST_HEADER = "\0gitlet-chunks\n";
+    private static final byte[] MANIFEST_HEADER_BYTES = MANIFEST_HEADER.getBytes(StandardCharsets.UTF_8);
+    /** Bytes of an object file that tell a manifest from any other object. */
+    static final int HEADER_LENGTH = MANIFEST_HEADER_BYTES.length;
+    /** Normalized chunking masks from the FastCDC paper for an 8KB average. */
+    private static final long MASK_S = 0x0003590703530000L;
+    private static final long MASK_L = 0x0000d90003530000L;
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // A fixed seed keeps boundaries stable across runs and machines.
+        Random random = new Random(0x676974L);
+        for (int i = 0; i < GEAR.length; i++) GEAR[i] = random.nextLong();
+    }
+
+    static boolean shouldChunk(File file) {
+        return THRESHOLD >= 0 && file.length() >= THRESHOLD;
+    }
+
+    /**
+     * Find the next cut point.
+     * @param buf buffer holding the data
+     * @param len number of valid bytes from the start of buf
+     * @return length of the next chunk.
+     */
+    static int cutPoint(byte[] buf, int len) {
+        if (len <= MIN_SIZE) return len;
+        int n = Math.min(len, MAX_SIZE);
+        int normal = Math.min(AVG_SIZE, n);
+        long fingerprint = 0;
+        int i = MIN_SIZE;
+        // Harder to cut before the average size, easier after it.
+        for (; i < normal; i++) {
+            fingerprint = (fingerprint << 1) + GEAR[buf[i] & 0xff];
+            if ((fingerprint & MASK_S) == 0) return i;
+        }
+        for (; i < n; i++) {
+            fingerprint = (fingerprint << 1) + GEAR[buf[i] & 0xff];
+            if ((fingerprint & MASK_L) == 0) return i;
+        }
+        return n;
+    }
+
+    /**
+     * Chunk a working file and write its chunks and manifest.
+     * @param source file in the working directory
+     * @param manifestFile object file of the blob
+     */
+    static void writeChunked(File source, File manifestFile) {
+        StringBuilder manifest = new StringBuilder(MANIFEST_HEADER);
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(source.toPath()))) {
+            byte[] buf = new byte[MAX_SIZE];
+            int len = 0;
+            List<byte[]> batch = new ArrayList<>();
+            while (true) {
+                len += in.readNBytes(buf, len, MAX_SIZE - len);
+                if (len == 0) break;
+                int cut = cutPoint(buf, len);
+                byte[] chunk = new byte[cut];
+                System.arraycopy(buf, 0, chunk, 0, cut);
+                System.arraycopy(buf, cut, buf, 0, len - cut);
+                len -= cut;
+                batch.add(chunk);
+                if (batch.size() == BATCH_SIZE) {
+                    writeBatch(batch, manifest);
+                    batch.clear();
+                }
+            }
+            writeBatch(batch, manifest);
+        } catch (IOException e) {
+            throw Utils.error(e.getMessage());
+        }
+        Utils.writeContents(manifestFile, manifest.toString());
+    }
+
+    /** Hash a batch of chunks in parallel and store the ones not yet in .gitlet. */
+    private static void writeBatch(List<byte[]> batch, StringBuilder manifest) {
+        String[] hashes = new String[batch.size()];
+        HashAlgorithm algorithm = HashAlgorithm.current();
+        File objectsDir = Repository.file(Gitlet.OBJECT_PATH);
+        ObjectFilter filter = ObjectFilter.current();
+        IntStream.range(0, batch.size()).parallel().forEach((i) -> {
+            byte[] chunk = batch.get(i);
+            hashes[i] = algorithm.hash(chunk);
+            if (!filter.contains(hashes[i])) {
+                Utils.writeContents(new File(objectsDir, hashes[i]), chunk);
+                filter.add(hashes[i]);
+            }
+        });
+        for (String hash : hashes) manifest.append(hash).append('\n');
+    }
+
+    /**
+     * @return true if the object file is a chunk manifest rather than plain content.
+     */
+    static boolean isManifest(File objectFile) {
+        if (objectFile.length() < MANIFEST_HEADER_BYTES.length) return false;
+        try (InputStream in = Files.newInputStream(objectFile.toPath())) {
+            return isManifest(in.readNBytes(MANIFEST_HEADER_BYTES.length));
+        } catch (IOException e) {
+            throw Utils.error(e.getMessage());
+        }
+    }
+
+    /**
+     * @param head the first HEADER_LENGTH bytes of an object file, fewer if it is shorter
+     * @return true if they start a chunk manifest.
+     */
+    static boolean isManifest(byte[] head) {
+        return head.length >= MANIFEST_HEADER_BYTES.length
+                && Arrays.equals(head, 0, MANIFEST_HEADER_BYTES.length, MANIFEST_HEADER_BYTES, 0, MANIFEST_HEADER_BYTES.length);
+    }
+
+    /**
+     * @param manifestFile object file of a chunked blob
+     * @return ids of its chunks, in content order.
+     */
+    static List<String> chunkIds(File manifestFile) {
+        String manifest = Utils.readContentsAsString(manifestFile);
+        List<String> ids = new ArrayList<>();
+        for (String chunkHash : manifest.substring(MANIFEST_HEADER.length()).split("\n")) {
+            if (!chunkHash.isEmpty()) ids.add(chunkHash);
+        }
+        return ids;
+    }
+
+    /**
+     * Stream the content described by a manifest, one chunk in memory at a time.
+     * @param manifestFile object file of the blob
+     * @param out destination of the reassembled content
+     */
+    static void reassemble(File manifestFile, OutputStream out) throws IOException {
+        reassemble(manifestFile, out, Promisor::objectFile);
+    }
+
+    /**
+     * @param objectFile id -> file of a chunk
+     */
+    static void reassemble(File manifestFile, OutputStream out, Function<String, File> objectFile) throws IOException {
+        for (String chunkHash : chunkIds(manifestFile)) {
+            File chunkFile = objectFile.apply(chunkHash);
+            if (!chunkFile.exists()) throw Utils.error("Missing chunk %s.", chunkHash);
+            Files.copy(chunkFile.toPath(), out);
+        }
+    }
+}
@@ -1,18 +1,37 @@
 package gitlet;
 
-import jdk.jshell.execution.Util;
-
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
 
 public class Cmd {
+    /**
+     * Create a new repository in the current directory.
+     * @param args length == 0, or 1: --object-format=sha1|sha256 (default sha1)
+     */
     public static void init(String... args) {
         // Check args
-        CmdUtils.checkArgsNum(0, args);
+        CmdUtils.checkArgsRange(0, 2, args);
+        HashAlgorithm algorithm = HashAlgorithm.SHA1;
+        if (args.length == 1) {
+            String prefix = "--object-format=";
+            if (args[0].startsWith(prefix)) algorithm = HashAlgorithm.fromFormatName(args[0].substring(prefix.length()));
+            if (!args[0].startsWith(prefix) || algorithm == null) Gitlet.printAndExit("Incorrect operands.");
+        }
         // Setup directory
         Gitlet.setupDirectory();
+        HashAlgorithm.setCurrent(algorithm);
 
         /*
          Create a commit with no files, message "initial commit"
@@ -24,6 +43,7 @@ public class Cmd {
         Commit initCommit = new Commit("initial commit",
                 new Date(0), null, blobsMap);
         String initCommitSHA1 = initCommit.writeObject();
+        CommitGraph.add(initCommitSHA1, initCommit, blobsMap);
 
         // Write index file.
         Gitlet.setIndexMap(blobsMap);
@@ -35,51 +55,64 @@ public class Cmd {
     }
 
     /**
-     * Stage the file.
-     * @param args length = 1, filename
+     * Stage files: add [file name | directory | glob | -A]...
+     * A directory stages every file under it, a glob every working file matching it, and -A
+     * every working file plus the removal of every tracked file deleted from the working directory.
+     * The files are hashed and stored in parallel, objects already in .gitlet are not written
+     * again, and the index is written once for all of them.
+     * @param args length >= 1, operands as above
      */
     public static void add(String... args) {
         // Check if .gitlet is initialized
         CmdUtils.checkRep();
         // Check the args length
-        CmdUtils.checkArgsNum(1, args);
-        String filename = args[0];
-        // Get the blobMap of previous commit
-        Commit headCommit = Gitlet.getHeadCommit();
-        HashMap<String, String> headBlobsMap = headCommit.getBlobsMap();
-        // Get the current index
-        HashMap<String, String> indexBlobsMap = Gitlet.getIndexMap();
-        // Get the current working-tree
-        HashMap<String, String> fileMap = Gitlet.getFileMap();
+        CmdUtils.checkArgsRange(1, Integer.MAX_VALUE, args);
+        boolean all = false;
+        List<String> pathspecs = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("-A")) all = true;
+            else pathspecs.add(arg);
+        }
 
         /*
-            1. file not exist: print "File does not exist."
-            2. file exist: update index and .gitlet/Objects
+            1. a file not exist: print "File does not exist." and stage nothing
+            2. hash every file, store the objects missing from .gitlet, update the index entries
+            Named files are hashed even outside the sparse-checkout cone.
          */
-        if (!fileMap.containsKey(filename)) {
-            Utils.message("File does not exist.");
-            System.exit(0);
-        } else {
-            String fileHash = fileMap.get(filename);
-            // Not staged
-            if (!indexBlobsMap.containsKey(filename)) {
-                // update index
-                indexBlobsMap.put(filename, fileHash);
-                Gitlet.setIndexMap(indexBlobsMap);
-                // update .gitlet/Objects
-                Blob.writeFile(filename);
-            }
-            // Staged. Note Blobs.writeFile will check if already written.
-            else {
-                String stagedFileHash = indexBlobsMap.get(filename);
-                // case1: not changed
-                if (stagedFileHash == fileHash) return;
-                // case2: modified
-                indexBlobsMap.put(filename, fileHash);
-                Gitlet.setIndexMap(indexBlobsMap);
-                Blob.writeFile(filename);
+        TreeSet<String> filenames = CmdUtils.resolvePathspecs(pathspecs);
+        HashMap<String, String> fileHashes = new HashMap<>();
+        if (all) {
+            // The file cache and a running monitor spare re-reading unchanged files.
+            fileHashes.putAll(Gitlet.getFileMap());
+            filenames.removeAll(fileHashes.keySet());
+        }
+        Repository repo = Repository.current();
+        fileHashes.putAll(filenames.parallelStream().collect(Collectors.toMap(
+                (filename) -> filename, (filename) -> repo.enter(() -> Blob.getFileHash(filename)))));
+
+        // A single file is looked up without reading the whole index.
+        HashMap<String, String> index = (fileHashes.size() == 1 && !all) ? null : Gitlet.getIndexMap();
+        HashMap<String, String> changes = new HashMap<>();
+        fileHashes.forEach((filename, fileHash) -> {
+            String stagedHash = (index == null) ? Gitlet.getIndexEntry(filename) : index.get(filename);
+            // Already staged, not changed
+            if (!fileHash.equals(stagedHash)) changes.put(filename, fileHash);
+        });
+        if (all) {
+            Predicate<String> cone = SparseCheckout.cone();
+            for (String filename : index.keySet()) {
+                if (!fileHashes.containsKey(filename) && cone.test(filename)) changes.put(filename, null);
             }
         }
+
+        // object id -> one file with that content, so each new object is written once.
+        HashMap<String, String> newObjects = new HashMap<>();
+        changes.forEach((filename, fileHash) -> {
+            if (fileHash != null && !ObjectFilter.exists(fileHash)) newObjects.putIfAbsent(fileHash, filename);
+        });
+        newObjects.entrySet().parallelStream()
+                .forEach((object) -> repo.enter(() -> Blob.writeFile(object.getValue(), object.getKey())));
+        Gitlet.setIndexEntries(changes);
     }
 
     /**
@@ -92,8 +125,7 @@ public class Cmd {
         CmdUtils.checkRep();
         // Check the args length
         if (args.length == 0) {
-            Utils.message("Please enter a commit message.");
-            System.exit(0);
+            Gitlet.printAndExit("Please enter a commit message.");
         }
         CmdUtils.checkArgsNum(1, args);
         String message = args[0];
@@ -116,37 +148,35 @@ public class Cmd {
         // Get the blobMap of previous commit
         Commit headCommit = Gitlet.getHeadCommit();
         HashMap<String, String> headBlobsMap = headCommit.getBlobsMap();
-        // Get the current index
-        HashMap<String, String> indexBlobsMap = Gitlet.getIndexMap();
-        // Get the current working-tree
-        HashMap<String, String> fileMap = Gitlet.getFileMap();
 
-        boolean fileCached = indexBlobsMap.containsKey(filename);
+        boolean fileCached = (Gitlet.getIndexEntry(filename) != null);
         boolean fileCommited = headBlobsMap.containsKey(filename);
         // If the file is neither staged nor tracked by the head commit.
         if (!(fileCached || fileCommited)) {
-            Utils.message("No reason to remove the file.");
-            System.exit(0);
+            Gitlet.printAndExit("No reason to remove the file.");
         }
         // If the file is staged.
-        if (fileCached) {
-            indexBlobsMap.remove(filename);
-            Gitlet.setIndexMap(indexBlobsMap);
-        }
+        if (fileCached) Gitlet.setIndexEntry(filename, null);
         // If the file is in current commit.
         if (fileCommited) {
-            Utils.restrictedDelete("./" + filename);
+            WorkTree.delete(filename);
         }
     }
 
     /**
      * Display the log. Only follow parent1.
-     * @param args args.length == 0
+     * log -- [file name] only shows the commits that changed the file,
+     * using the changed-path filters of the commit-graph to skip the others unread.
+     * @param args args.length == 0 || 2
      */
     public static void log(String... args) {
         // Check if .gitlet is initialized
         CmdUtils.checkRep();
         // Check the args length
+        if (args.length == 2 && args[0].equals("--")) {
+            CmdUtils.logPath(args[1]);
+            return;
+        }
         CmdUtils.checkArgsNum(0, args);
 
         String currentSHA1 = Gitlet.getHeadSHA1();
@@ -160,18 +190,128 @@ public class Cmd {
     }
 
     /**
-     * Shwo the global-log,the order does not matter.
+     * Show the global-log, every commit in the store, newest first, see GlobalLog.
+     * global-log [--since date] [--until date] keeps the commits made in that range,
+     * each date as 2024-01-31 (midnight) or 2024-01-31T13:45[:30], in the local time zone.
+     * @param args args.length == 0, 2 or 4
      */
     public static void globalLog(String... args) {
+        // Check if .gitlet is initialized
+        CmdUtils.checkRep();
+        // Check the args length
+        if (args.length % 2 != 0) Gitlet.printAndExit("Incorrect operands.");
+        Date since = null, until = null;
+        for (int i = 0; i < args.length; i += 2) {
+            if (args[i].equals("--since")) since = CmdUtils.parseDate(args[i + 1]);
+            else if (args[i].equals("--until")) until = CmdUtils.parseDate(args[i + 1]);
+            else Gitlet.printAndExit("Incorrect operands.");
+        }
+
+        GlobalLog.print(since, until);
+    }
+
+    /**
+     * Verify the object store, see Fsck: fsck [--threads N]
+     * Re-hashes every object on N threads, one per core by default, and prints every corrupt,
+     * missing, dangling or misplaced object; nothing if the store is sound.
+     * @param args args.length == 0 or 2
+     */
+    public static void fsck(String... args) {
+        // Check if .gitlet is initialized
+        CmdUtils.checkRep();
+        // Check the args length
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (args.length == 2 && args[0].equals("--threads")) {
+            try {
+                threads = Integer.parseInt(args[1]);
+            } catch (NumberFormatException e) {
+                threads = 0;
+            }
+            if (threads < 1) Gitlet.printAndExit("Incorrect operands.");
+        } else {
+            CmdUtils.checkArgsNum(0, args);
+        }
+
+        Fsck.run(threads);
+    }
+
+    /**
+     * Write the files of a commit as a tar archive, see Archive: archive [commit id | branch name] [-o file]
+     * The archive goes to stdout, or to FILE, gzipped if its name ends in .gz or .tgz.
+     * @param args args.length == 1 || 3
+     */
+    public static void archive(String... args) {
+        // Check if .gitlet is initialized
+        CmdUtils.checkRep();
+        // Check the args length
+        if (args.length != 1 && !(args.length == 3 && args[1].equals("-o"))) {
+            Gitlet.printAndExit("Incorrect operands.");
+        }
+        String commitId = Gitlet.branchExists(args[0]) ? Gitlet.readBranchHash(args[0]) : args[0];
+        Commit commit = Commit.readObject(commitId);
+        if (commit == null) Gitlet.printAndExit("No commit with that id exists.");
+
+        if (args.length == 1) {
+            Archive.write(commit, System.out);
+            return;
+        }
+        File archiveFile = Repository.file(args[2]);
+        boolean gzip = args[2].endsWith(".gz") || args[2].endsWith(".tgz");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(archiveFile.toPath()))) {
+            if (gzip) {
+                GZIPOutputStream gzipOut = new GZIPOutputStream(out);
+                Archive.write(commit, gzipOut);
+                gzipOut.finish();
+            } else {
+                Archive.write(commit, out);
+            }
+        } catch (IOException e) {
+            throw Utils.error(e.getMessage());
+        }
+    }
+
+    /**
+     * Print statistics of the object store as JSON, see ObjectStats: count-objects
+     * @param args args.length == 0
+     */
+    public static void countObjects(String... args) {
         // Check if .gitlet is initialized
         CmdUtils.checkRep();
         // Check the args length
         CmdUtils.checkArgsNum(0, args);
 
-        List<String> allCommitsSHA1 = Gitlet.getAllCommitsSHA1();
-        for (String commitSHA1 : allCommitsSHA1) {
-            CmdUtils.printCommit(commitSHA1);
+        ObjectStats.print();
+    }
+
+    /**
+     * Show or trim the reflog, see Reflog.
+     *  reflog [ref]: every value of REF, HEAD by default, newest first
+     *  reflog expire [--days N]: drop the entries older than N days from every log
+     * @param args args.length <= 3
+     */
+    public static void reflog(String... args) {
+        // Check if .gitlet is initialized
+        CmdUtils.checkRep();
+        // Check the args length
+        CmdUtils.checkArgsRange(0, 4, args);
+        if (args.length == 0 || !args[0].equals("expire")) {
+            CmdUtils.checkArgsRange(0, 2, args);
+            Reflog.print(args.length == 0 ? Reflog.HEAD_LOG : args[0]);
+            return;
         }
+        int days = -1;
+        if (args.length == 3 && args[1].equals("--days")) {
+            try {
+                days = Integer.parseInt(args[2]);
+            } catch (NumberFormatException e) {
+                days = -1;
+            }
+            if (days < 0) Gitlet.printAndExit("Incorrect operands.");
+        } else if (args.length != 1) {
+            Gitlet.printAndExit("Incorrect operands.");
+        }
+
+        Reflog.expire(days);
     }
 
     public static void find(String... args) {
@@ -186,8 +326,7 @@ public class Cmd {
         for (String commitSHA1 : allCommitsSHA1) {
             Commit commit = Commit.readObject(commitSHA1);
             if (commit == null) {
-                Utils.message("Will never be here.");
-                System.exit(0);
+                Gitlet.printAndExit("Will never be here.");
             } else {
                 if (msg.equals(commit.getMessage())) {
                     isFound = true;
@@ -196,8 +335,94 @@ public class Cmd {
             }
         }
         if (!isFound) {
-            Utils.message("Found no commit with that message.");
-            System.exit(0);
+            Gitlet.printAndExit("Found no commit with that message.");
+        }
+    }
+
+    /**
+     * Show line-level changes in unified format.
+     *  1. diff
+     *      working directory against the index, untracked files are ignored.
+     *  2. diff --cached
+     *      index against the head commit.
+     *  3. diff [commit id] [commit id]
+     *      first commit against second commit, ids can be shortened.
+     *      If no such commit, print "No commit with that id exists."
+     * @param args args.length == 0 || 1 || 2
+     */
+    public static void diff(String... args) {
+        // Check if .gitlet is initialized
+        CmdUtils.checkRep();
+        // Check the args length
+        CmdUtils.checkArgsRange(0, 3, args);
+
+        /* Case 1: working directory vs index */
+        if (args.length == 0) {
+            HashMap<String, String> indexBlobsMap = Gitlet.getIndexMap();
+            HashMap<String, String> trackedFileMap = new HashMap<>();
+            Gitlet.getFileMap().forEach((fileName, fileHash) -> {
+                if (indexBlobsMap.containsKey(fileName)) trackedFileMap.put(fileName, fileHash);
+            });
+            CmdUtils.printMapsDiff(indexBlobsMap, trackedFileMap, true);
+        }
+
+        /* Case 2: index vs head commit */
+        if (args.length == 1) {
+            if (!args[0].equals("--cached")) Gitlet.printAndExit("Incorrect operands.");
+            HashMap<String, String> headBlobsMap = Gitlet.getHeadCommit().getBlobsMap();
+            CmdUtils.printMapsDiff(headBlobsMap, Gitlet.getIndexMap(), false);
+        }
+
+        /* Case 3: commit vs commit */
+        if (args.length == 2) {
+            Commit oldCommit = Commit.readObject(args[0]);
+            Commit newCommit = Commit.readObject(args[1]);
+            if (oldCommit == null || newCommit == null) Gitlet.printAndExit("No commit with that id exists.");
+            CmdUtils.printMapsDiff(oldCommit.getBlobsMap(), newCommit.getBlobsMap(), false);
+        }
+    }
+
+    /**
+     * Show, for each line of a file in the head commit, the commit that last changed it:
+     *  [8-digit commit id] ([date] [line number]) [line]
+     * With -L start,end only lines start..end (1-based, inclusive) are attributed,
+     * and the history walk stops once all of them are.
+     * If the file is not in the head commit, print "File does not exist in that commit."
+     * @param args args.length == 1 || 3, [-L start,end] [file name]
+     */
+    public static void blame(String... args) {
+        // Check if .gitlet is initialized
+        CmdUtils.checkRep();
+        // Check the args length
+        if (args.length != 1 && args.length != 3) CmdUtils.checkArgsNum(1, args);
+        String fileName = args[args.length - 1];
+
+        String headSHA1 = Gitlet.getHeadSHA1();
+        String blobHash = Gitlet.getHeadCommit().getBlobsMap().get(fileName);
+        if (blobHash == null) Gitlet.printAndExit("File does not exist in that commit.");
+        List<String> lines = Diff.splitLines(Blob.readFile(blobHash));
+        int from = 0, to = lines.size();
+        if (args.length == 3) {
+            String[] range = args[1].split(",");
+            if (!args[0].equals("-L") || range.length != 2) Gitlet.printAndExit("Incorrect operands.");
+            try {
+                from = Integer.parseInt(range[0]) - 1;
+                to = Integer.parseInt(range[1]);
+            } catch (NumberFormatException e) {
+                Gitlet.printAndExit("Incorrect operands.");
+            }
+            if (from < 0 || to > lines.size() || from >= to) Gitlet.printAndExit("Invalid line range.");
+        }
+
+        String[] owners = Blame.blame(headSHA1, fileName, from, to);
+        DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss Z");
+        HashMap<String, String> dates = new HashMap<>();
+        for (int i = from; i < to; i++) {
+            String owner = owners[i - from];
+            String date = dates.computeIfAbsent(owner, (id) -> dateFormat.format(Commit.readObject(id).getTime()));
+            String line = lines.get(i);
+            if (line.endsWith("\n")) line = line.substring(0, line.length() - 1);
+            System.out.println(owner.substring(0, 8) + " (" + date + " " + (i + 1) + ") " + line);
         }
     }
 
@@ -224,8 +449,9 @@ public class Cmd {
         HashMap<String, String> headBlobsMap = headCommit.getBlobsMap();
         // Get the current index
         HashMap<String, String> indexBlobsMap = Gitlet.getIndexMap();
-        // Get the current working-tree
+        // Get the current working-tree, only the sparse-checkout cone
         HashMap<String, String> fileMap = Gitlet.getFileMap();
+        Predicate<String> cone = SparseCheckout.cone();
 
         /* Setup the result list */
         List<String> stagedList = new LinkedList<String>();
@@ -242,6 +468,7 @@ public class Cmd {
         Modified:
             a filename is in index but not in working directory: (deleted)
             a file name is in index, and in working directory, but different SHA1: (modified)
+            both only inside the sparse-checkout cone
          */
         indexBlobsMap.forEach((fileName, fileHash) -> {
             boolean inCommit = headBlobsMap.containsKey(fileName);
@@ -253,6 +480,8 @@ public class Cmd {
                     stagedList.add(fileName);
                 }
             }
+            // Files outside the cone are not checked out, that is not a deletion.
+            if (!cone.test(fileName)) return;
             boolean nameInWorkingDir = fileMap.containsKey(fileName);
             if (!nameInWorkingDir) {
                 modifiedList.add(new AbstractMap.SimpleEntry<String, Boolean>(fileName, true));
@@ -287,7 +516,7 @@ public class Cmd {
         Collections.sort(untrackedList);
 
         /* Display Branches */
-        List<String> branchList = Utils.plainFilenamesIn(Gitlet.BRANCHES_PATH);
+        List<String> branchList = Gitlet.getBranchList();
         // Get the master branch, ignore detachd-head case for now.
         String headRef = Gitlet.getHeadRef();
         System.out.println("=== Branches ===");
@@ -370,16 +599,15 @@ public class Cmd {
         if (args.length == 1) {
             String branchName = args[0];
             String headBranchName = Gitlet.getHeadRef();
-            List<String> branchList = Gitlet.getBranchList();
             // i. branch is current head branch
             if (branchName.equals(headBranchName)) Gitlet.printAndExit("No need to checkout the current branch.");
             // ii. no such branch
-            if (!branchList.contains(branchName)) Gitlet.printAndExit("No such branch exists.");
+            if (!Gitlet.branchExists(branchName)) Gitlet.printAndExit("No such branch exists.");
             // iii. have untracked file
             String branchHash = Gitlet.readBranchHash(branchName);
             Commit branchCommit = Commit.readObject(branchHash);
             HashMap<String, String> historyBlobsMap = branchCommit.getBlobsMap();
-            if (Gitlet.hasUntrackedFile(historyBlobsMap)) Gitlet.printAndExit(" There is an untracked file in the way; delete it or add it first.");
+            if (Gitlet.hasUntrackedFile(headBlobsMap)) Gitlet.printAndExit(" There is an untracked file in the way; delete it or add it first.");
 
             // normal case: overwrite the working directory.
             Gitlet.writeHEAD("/" + branchName);
@@ -402,10 +630,8 @@ public class Cmd {
         String branchName = args[0];
 
         /* Branch name exists */
-        List<String> branchList = Gitlet.getBranchList();
-        if (branchList.contains(branchName)) {
-            Utils.message("A branch with that name already exists.");
-            System.exit(0);
+        if (Gitlet.branchExists(branchName)) {
+            Gitlet.printAndExit("A branch with that name already exists.");
         }
         String currentSHA1 = Gitlet.getHeadSHA1();
         Gitlet.writeBranch(branchName, currentSHA1);
@@ -425,19 +651,91 @@ public class Cmd {
         String branchName = args[0];
 
         String currentBranchName = Gitlet.getHeadRef();
-        List<String> branchList = Gitlet.getBranchList();
         // Want to delete current branch
         if (branchName.equals(currentBranchName)) {
-            Utils.message("Cannot remove the current branch.");
-            System.exit(0);
+            Gitlet.printAndExit("Cannot remove the current branch.");
         }
         // No such branch.
-        if (!branchList.contains(branchName)) {
-            Utils.message("A branch with that name does not exist.");
-            System.exit(0);
+        if (!Gitlet.branchExists(branchName)) {
+            Gitlet.printAndExit("A branch with that name does not exist.");
         }
         // Normal case.
-        Utils.restrictedDelete(Gitlet.BRANCHES_PATH + branchName);
+        Gitlet.deleteBranch(branchName);
+    }
+
+    /**
+     * Move every loose branch ref into .gitlet/packed-refs and delete the loose files.
+     * Later branch updates write loose refs again, which override the packed ones.
+     * @param args length == 0
+     */
+    public static void packRefs(String... args) {
+        // Check if .gitlet is initialized
+        CmdUtils.checkRep();
+        // Check the args length
+        CmdUtils.checkArgsNum(0, args);
+
+        PackedRefs.packLooseRefs();
+    }
+
+    /**
+     * Manage sparse checkout, see SparseCheckout.
+     *  1. sparse-checkout set [pattern] ...: only materialize files matching one of the glob patterns.
+     *  2. sparse-checkout list: print the patterns.
+     *  3. sparse-checkout disable: materialize every file again.
+     * Files entering the cone are written from the index. Files leaving it are deleted
+     * from the working directory, unless they have changes that are not staged.
+     * @param args [set pattern ... | list | disable]
+     */
+    public static void sparseCheckout(String... args) {
+        // Check if .gitlet is initialized
+        CmdUtils.checkRep();
+        // Check the args length
+        CmdUtils.checkArgsRange(1, Integer.MAX_VALUE, args);
+        List<String> newPatterns = null;
+        if (args[0].equals("list") && args.length == 1) {
+            for (String pattern : SparseCheckout.patterns()) System.out.println(pattern);
+            return;
+        } else if (args[0].equals("set") && args.length > 1) {
+            newPatterns = Arrays.asList(args).subList(1, args.length);
+        } else if (!(args[0].equals("disable") && args.length == 1)) {
+            Gitlet.printAndExit("Incorrect operands.");
+        }
+
+        Predicate<String> oldCone = SparseCheckout.cone();
+        Predicate<String> newCone = (newPatterns == null) ? (path) -> true : SparseCheckout.cone(newPatterns);
+        HashMap<String, String> indexBlobsMap = Gitlet.getIndexMap();
+        List<String> entering = new ArrayList<>();
+        indexBlobsMap.forEach((fileName, fileHash) -> {
+            boolean wasInCone = oldCone.test(fileName), isInCone = newCone.test(fileName);
+            if (!wasInCone && isInCone) entering.add(fileName);
+            if (wasInCone && !isInCone) {
+                File file = Repository.file("./" + fileName);
+                if (file.isFile() && Blob.getFileHash(fileName).equals(fileHash)) WorkTree.delete(fileName);
+            }
+        });
+        Promisor.prefetch(entering.stream().map(indexBlobsMap::get).toList());
+        for (String fileName : entering) {
+            if (!Repository.file("./" + fileName).exists()) Blob.writeBackFromGit(indexBlobsMap.get(fileName), fileName);
+        }
+        SparseCheckout.setPatterns(newPatterns);
+        // The file cache only covers the old cone.
+        FsMonitor.invalidate();
+    }
+
+    /**
+     * Watch the working directory and journal changed paths, so that status, add and checkout
+     * only examine those; see FsMonitor. Runs until killed, typically in the background:
+     *  java gitlet.Main monitor &
+     * If a monitor already runs for this repository, print "A monitor is already running."
+     * @param args length == 0
+     */
+    public static void monitor(String... args) {
+        // Check if .gitlet is initialized
+        CmdUtils.checkRep();
+        // Check the args length
+        CmdUtils.checkArgsNum(0, args);
+
+        FsMonitor.run();
     }
 
     public static void reset(String... args) {
@@ -451,14 +749,12 @@ public class Cmd {
         commitID = Commit.abbrevSHA1toFull(commitID);
         Commit targetCommit = Commit.readObject(commitID);
         if (targetCommit == null) {
-            Utils.message("No commit with that id exists.");
-            System.exit(0);
+            Gitlet.printAndExit("No commit with that id exists.");
         }
         // check untrackeed file
         Commit headCommit = Gitlet.getHeadCommit();
         if (Gitlet.hasUntrackedFile(headCommit.getBlobsMap())) {
-            Utils.message("There is an untracked file in the way; delete it or add it first.");
-            System.exit(0);
+            Gitlet.printAndExit("There is an untracked file in the way; delete it or add it first.");
         }
         // Change working dir, index, head
         targetCommit.writeWorkingDir();
@@ -487,6 +783,9 @@ public class Cmd {
      * If there is a conflict, print "Encountered a merge conflict."
      * For multiple split point, choose the one nearest to current branch.
      * If there are severl split points with same distance, choose randomly.
+     * The whole result is computed in memory before any blob or working file is written.
+     * With --dry-run, only print "CONFLICT: [file name]" for each conflicting file and
+     * whether the merge would succeed; nothing is written.
      *
      * Error cases:
      *  1. If there is staged addition or removals, print "You have uncommitted changes."
@@ -495,33 +794,35 @@ public class Cmd {
      *  4. If no change, let commit error message handle it.
      *  5. If the working dir has untracked file
      *    , print "There is an untracked file in the way; delete it or add it first."
-     * @param args length == 1, [branch name]
+     * @param args length == 1 or 2, [--dry-run] [branch name]
      */
     public static void merge(String... args) {
         // Check if .gitlet is initialized
         CmdUtils.checkRep();
         // Check the args length
-        CmdUtils.checkArgsNum(1, args);
-        String givenBranch = args[0];
+        CmdUtils.checkArgsRange(1, 3, args);
+        boolean dryRun = args.length == 2;
+        if (dryRun && !args[0].equals("--dry-run")) Gitlet.printAndExit("Incorrect operands.");
+        String givenBranch = args[args.length - 1];
 
         /* init current maps, and other datas */
-        HashMap<String, String> workingDirMap = Gitlet.getFileMap();
+        // A dry run reads objects only; the file-hash cache is not updated.
+        HashMap<String, String> workingDirMap = Gitlet.scanFileMap(!dryRun);
         HashMap<String, String> headBlobsMap = Gitlet.getHeadCommit().getBlobsMap();
         HashMap<String, String> indexBlobsMap = Gitlet.getIndexMap();
-        List<String> branchList = Gitlet.getBranchList();
         String currentBranch = Gitlet.getHeadRef();
         String currentBranchHash = Gitlet.getHeadSHA1();
         String givenBranchHash = Gitlet.readBranchHash(givenBranch);
-        Commit givenBrCommit = Commit.readObject(givenBranchHash);
-        HashMap<String, String> givenBrBlobsMap = givenBrCommit.getBlobsMap();
 
         /* check error cases */
         // 1. something staged but not commited
         boolean allCommited = headBlobsMap.equals(indexBlobsMap);
         if (!allCommited) Gitlet.printAndExit("You have uncommitted changes.");
         // 2. input branch not exist
-        boolean branchExists = branchList.contains(givenBranch);
+        boolean branchExists = (givenBranchHash != null);
         if (!branchExists) Gitlet.printAndExit("A branch with that name does not exist.");
+        Commit givenBrCommit = Commit.readObject(givenBranchHash);
+        HashMap<String, String> givenBrBlobsMap = givenBrCommit.getBlobsMap();
         // 3. merge into itself
         if (givenBranch.equals(currentBranch)) Gitlet.printAndExit("Cannot merge a branch with itself.");
         // 4. Nochange: implement inside calling commit
@@ -532,137 +833,330 @@ public class Cmd {
         });
 
         /* Find the split point */
-        // Ordered list of all ancestors of head and given branch. (for multiple parents, it is BFS ordered)
-        List<String> ancestorsOfHead = Gitlet.getAllAncestors(Gitlet.getHeadSHA1());
-        List<String> ancestorsOfGivenBr = Gitlet.getAllAncestors(givenBranchHash);
-        Set<String> ancestorOfGivenBrSet = new HashSet<>(ancestorsOfGivenBr);
-        // Find the split point: Iterate the ancestorsOfHead, find one in ancestorsOfGivenBr
-        String splitPointHash = null;
-        for (String currentHash : ancestorsOfHead) {
-            if (ancestorOfGivenBrSet.contains(currentHash)) {
-                //split point found!
-                splitPointHash = currentHash;
-                break;
-            }
-        }
-        if (splitPointHash == null) {
-            // Should never be here
-            Utils.error("Find split point error");
-        }
+        String splitPointHash = CmdUtils.findSplitPoint(currentBranchHash, givenBranchHash);
         // Case1: split point is given branch's commit
-        if (splitPointHash == givenBranchHash) Gitlet.printAndExit("Given branch is an ancestor of the current branch.");
+        if (splitPointHash.equals(givenBranchHash)) Gitlet.printAndExit("Given branch is an ancestor of the current branch.");
         // Case2: Split point is current branch
-        if (splitPointHash == Gitlet.getHeadSHA1()) {
-            //set curent branch to given branch
+        if (splitPointHash.equals(currentBranchHash)) {
+            if (dryRun) Gitlet.printAndExit("Current branch would be fast-forwarded.");
+            //set curent branch to given branch, and check it out
             Gitlet.writeBranch(currentBranch, givenBranchHash);
+            givenBrCommit.writeWorkingDir();
+            Gitlet.setIndexMap(givenBrBlobsMap);
             Gitlet.printAndExit("Current branch fast-forwarded.");
         }
         Commit splitPointCommit = Commit.readObject(splitPointHash);
 
-        /* Get three maps of filename -> BlobHash: prev(split point), current, given branch
-            Build a new index, write to .gitlet, and call commitHelper
+        /* Merge the three maps of filename -> BlobHash: prev(split point), current, given branch.
+            The result index and every merged file are computed in memory first,
+            then blobs, working directory and index are written, and commitHelper is called.
          */
         HashMap<String, String> prevBlobsMap = splitPointCommit.getBlobsMap();
-        // deep copy the head commit's blobMap
-        HashMap<String, String> newIndex = new HashMap<>(headBlobsMap);
-        // Case 3, 4, 5, 8, 9, 10.i
-        prevBlobsMap.forEach((prevName, prevHash) -> {
-            boolean inGivenBr = givenBrBlobsMap.containsKey(prevName);
-            boolean inCurrent = headBlobsMap.containsKey(prevName);
-            String givenBrHash = givenBrBlobsMap.get(prevName);
-            String currentHash = headBlobsMap.get(prevName);
-            // Case 3, 4, 5
-            if (inCurrent && inGivenBr) {
-                boolean modifiedInBr = (!givenBrHash.equals(prevHash));
-                boolean modifiedInCurrent = (!currentHash.equals(prevHash));
-                if (modifiedInBr && !modifiedInCurrent) {
-                    newIndex.put(prevName, givenBrHash);
-                }
-                if (modifiedInBr && modifiedInCurrent) {
-                    if (givenBrHash.equals(currentHash)) {
-                        // modified in same way: do nothing
-                    }
-                    // Case 10.i
-                    else {
-                        String headContent = Blob.readFile(currentHash);
-                        String givenBrContent = Blob.readFile(givenBranchHash);
-                        String newContent = "<<<<<<< HEAD\n" + headContent + "=======" + givenBrContent + ">>>>>>>\n";
-                        String newContentHash = CmdUtils.writeConflictedMergeFile(prevName, newContent);
-                        // Update index
-                        newIndex.put(prevName, newContentHash);
-                        // Print conflict message
-                        Utils.message("Encountered a merge conflict.");
-                    }
+        TreeMerge result = TreeMerge.compute(prevBlobsMap, headBlobsMap, givenBrBlobsMap, !dryRun);
+        if (dryRun) {
+            for (String conflict : result.conflicts) Utils.message("CONFLICT: " + conflict);
+            if (result.conflicts.isEmpty()) Utils.message("Automatic merge would succeed.");
+            else Utils.message("Encountered a merge conflict.");
+            return;
+        }
+        result.writeBlobs();
+        result.updateWorkingDir(headBlobsMap);
+        if (!result.conflicts.isEmpty()) Utils.message("Encountered a merge conflict.");
+
+        /* Write new indexfile to .gitlet, and commit */
+        Gitlet.setIndexMap(result.index);
+        String commitMessage = "Merged " + givenBranch + " into " + currentBranch + ".";
+        CmdUtils.commitHelper(commitMessage, currentBranchHash, givenBranchHash);
+    }
+
+    /**
+     * Remember a remote repository on the local filesystem.
+     * If the name is taken, print "A remote with that name already exists."
+     * @param args length == 2, [remote name] [path to its .gitlet directory], '/' separated
+     */
+    public static void addRemote(String... args) {
+        // Check if .gitlet is initialized
+        CmdUtils.checkRep();
+        // Check the args length
+        CmdUtils.checkArgsNum(2, args);
+        String remoteName = args[0];
+        String remotePath = args[1].replace("/", File.separator);
+
+        HashMap<String, String> remotes = Remote.readRemotes();
+        if (remotes.containsKey(remoteName)) Gitlet.printAndExit("A remote with that name already exists.");
+        remotes.put(remoteName, remotePath);
+        Remote.writeRemotes(remotes);
+    }
+
+    /**
+     * Forget a remote. If there is no such remote, print "A remote with that name does not exist."
+     * @param args length == 1, [remote name]
+     */
+    public static void rmRemote(String... args) {
+        // Check if .gitlet is initialized
+        CmdUtils.checkRep();
+        // Check the args length
+        CmdUtils.checkArgsNum(1, args);
+        String remoteName = args[0];
+
+        HashMap<String, String> remotes = Remote.readRemotes();
+        if (!remotes.containsKey(remoteName)) Gitlet.printAndExit("A remote with that name does not exist.");
+        remotes.remove(remoteName);
+        Remote.writeRemotes(remotes);
+    }
+
+    /**
+     * Copy the commits of the current branch the remote lacks, and move the remote branch
+     * to the current head. The remote branch is created if it does not exist.
+     * If the remote branch's head is not in the history of the current head,
+     * print "Please pull down remote changes before pushing."
+     * @param args length == 2, [remote name] [remote branch name]
+     */
+    public static void push(String... args) {
+        // Check if .gitlet is initialized
+        CmdUtils.checkRep();
+        // Check the args length
+        CmdUtils.checkArgsNum(2, args);
+        String remoteName = args[0], remoteBranch = args[1];
+
+        File remoteDir = Remote.gitletDir(remoteName);
+        String localHead = Gitlet.getHeadSHA1();
+        String remoteHead = Remote.readBranch(remoteDir, remoteBranch);
+        if (remoteHead != null && !Remote.isAncestor(remoteHead, localHead)) {
+            Gitlet.printAndExit("Please pull down remote changes before pushing.");
+        }
+        Remote.transfer(Repository.file(Gitlet.OBJECT_PATH), new File(remoteDir, "objects"), localHead, true);
+        Remote.writeBranch(remoteDir, remoteBranch, localHead);
+    }
+
+    /**
+     * Copy the commits of a remote branch the local repository lacks,
+     * into the local branch [remote name]/[remote branch name].
+     * If the remote has no such branch, print "That remote does not have that branch."
+     * @param args length == 2, [remote name] [remote branch name]
+     */
+    public static void fetch(String... args) {
+        // Check if .gitlet is initialized
+        CmdUtils.checkRep();
+        // Check the args length
+        CmdUtils.checkArgsNum(2, args);
+        String remoteName = args[0], remoteBranch = args[1];
+
+        File remoteDir = Remote.gitletDir(remoteName);
+        String remoteHead = Remote.readBranch(remoteDir, remoteBranch);
+        if (remoteHead == null) Gitlet.printAndExit("That remote does not have that branch.");
+        Remote.transfer(new File(remoteDir, "objects"), Repository.file(Gitlet.OBJECT_PATH), remoteHead,
+                !Promisor.isPartial());
+        Gitlet.writeBranch(remoteName + "/" + remoteBranch, remoteHead);
+    }
+
+    /**
+     * Fetch a remote branch, then merge it into the current branch.
+     * @param args length == 2, [remote name] [remote branch name]
+     */
+    public static void pull(String... args) {
+        fetch(args);
+        merge(args[0] + "/" + args[1]);
+    }
+
+    /**
+     * Create a repository in the current directory from a remote on the local filesystem.
+     * The remote is remembered as "origin", its branches become origin/[branch name],
+     * and its current branch is checked out.
+     * With --filter=blob:none only commits are copied; blobs are fetched from origin
+     * when first needed, and checkout fetches the ones it needs in one batch.
+     * If the remote does not exist, print "Remote directory not found."
+     * @param args length == 1 || 2, [name of remote directory]/.gitlet [--filter=blob:none]
+     */
+    public static void clone(String... args) {
+        // Check the args length
+        CmdUtils.checkArgsRange(1, 3, args);
+        String remotePath = args[0].replace("/", File.separator);
+        boolean blobless = (args.length == 2);
+        if (blobless && !args[1].equals("--filter=blob:none")) Gitlet.printAndExit("Incorrect operands.");
+        File remoteDir = Repository.file(remotePath);
+        if (!remoteDir.isDirectory()) Gitlet.printAndExit("Remote directory not found.");
+        // The checkout at the end replaces the working directory, so it has to start empty.
+        if (!Gitlet.isInited() && !WorkTree.list().isEmpty()) {
+            Gitlet.printAndExit("There is an untracked file in the way; delete it or add it first.");
+        }
+
+        Gitlet.setupDirectory();
+        HashAlgorithm.setCurrent(HashAlgorithm.ofRepository(remoteDir));
+        HashMap<String, String> remotes = new HashMap<>();
+        remotes.put("origin", remotePath);
+        Remote.writeRemotes(remotes);
+        if (blobless) Promisor.setRemote("origin");
+
+        File remoteObjects = new File(remoteDir, "objects");
+        for (String branchName : Remote.branchList(remoteDir)) {
+            String branchHead = Remote.readBranch(remoteDir, branchName);
+            Remote.transfer(remoteObjects, Repository.file(Gitlet.OBJECT_PATH), branchHead, !blobless);
+            Gitlet.writeBranch("origin/" + branchName, branchHead);
+        }
+
+        /* Check out the remote's current branch, or its detached head as master */
+        String remoteHead = Utils.readContentsAsString(new File(remoteDir, "HEAD"));
+        String headBranch = "master";
+        String headSHA1 = remoteHead;
+        if (remoteHead.charAt(0) == '/') {
+            headBranch = remoteHead.substring(1);
+            headSHA1 = Remote.readBranch(remoteDir, headBranch);
+        } else {
+            Remote.transfer(remoteObjects, Repository.file(Gitlet.OBJECT_PATH), headSHA1, !blobless);
+        }
+        if (!headBranch.equals("master")) Gitlet.deleteBranch("master");
+        Gitlet.writeBranch(headBranch, headSHA1);
+        Gitlet.writeHEAD("/" + headBranch);
+        Commit headCommit = Commit.readObject(headSHA1);
+        headCommit.writeWorkingDir();
+        Gitlet.setIndexMap(headCommit.getBlobsMap());
+    }
+
+    /**
+     * Replay the commits of the current branch since the split point on top of the given branch.
+     * Each commit's change to its first parent's blob map is applied to the new base in memory,
+     * and new commits are written with the original message and time. A path changed on both
+     * sides is merged line by line; if that conflicts, nothing is changed and the rebase stops.
+     * Merged blobs and new commits are written only once every commit replayed cleanly,
+     * and the working directory once, after the last commit.
+     * Cases:
+     *  1. If the given branch is an ancestor of the current branch, print "Already up-to-date."
+     *  2. If the current branch is an ancestor of the given branch, fast-forward and print
+     *     "Current branch fast-forwarded."
+     * Error cases are those of merge, and
+     *  "Cannot rebase a detached HEAD." / "Cannot rebase a branch onto itself." /
+     *  "Rebase conflict in [file name]; nothing was changed."
+     * @param args length == 1, [branch name]
+     */
+    public static void rebase(String... args) {
+        // Check if .gitlet is initialized
+        CmdUtils.checkRep();
+        // Check the args length
+        CmdUtils.checkArgsNum(1, args);
+        String givenBranch = args[0];
+
+        String currentBranch = Gitlet.getHeadRef();
+        // There is no branch to move with HEAD detached.
+        if (currentBranch == null) Gitlet.printAndExit("Cannot rebase a detached HEAD.");
+        String currentBranchHash = Gitlet.getHeadSHA1();
+        String givenBranchHash = Gitlet.readBranchHash(givenBranch);
+        HashMap<String, String> headBlobsMap = Gitlet.getHeadCommit().getBlobsMap();
+
+        /* check error cases */
+        if (!headBlobsMap.equals(Gitlet.getIndexMap())) Gitlet.printAndExit("You have uncommitted changes.");
+        if (givenBranchHash == null) Gitlet.printAndExit("A branch with that name does not exist.");
+        if (givenBranch.equals(currentBranch)) Gitlet.printAndExit("Cannot rebase a branch onto itself.");
+        if (Gitlet.hasUntrackedFile(headBlobsMap)) {
+            Gitlet.printAndExit("There is an untracked file in the way; delete it or add it first.");
+        }
+
+        String splitPointHash = CmdUtils.findSplitPoint(currentBranchHash, givenBranchHash);
+        Commit givenBrCommit = Commit.readObject(givenBranchHash);
+        // Case 1
+        if (splitPointHash.equals(givenBranchHash)) Gitlet.printAndExit("Already up-to-date.");
+        // Case 2
+        if (splitPointHash.equals(currentBranchHash)) {
+            Gitlet.writeBranch(currentBranch, givenBranchHash);
+            givenBrCommit.writeWorkingDir();
+            Gitlet.setIndexMap(givenBrCommit.getBlobsMap());
+            Gitlet.printAndExit("Current branch fast-forwarded.");
+        }
+
+        /* Commits to replay, oldest first, following first parents down to the split point */
+        LinkedList<String> toReplay = new LinkedList<>();
+        Set<String> givenAncestors = new HashSet<>(Gitlet.getAllAncestors(givenBranchHash));
+        for (String id = currentBranchHash; id != null && !givenAncestors.contains(id);
+             id = CommitGraph.get(id).parent1) {
+            toReplay.addFirst(id);
+        }
+
+        /* Replay in memory; a conflict exits before anything is written */
+        String newParent = givenBranchHash;
+        HashMap<String, String> newBlobs = new HashMap<>(givenBrCommit.getBlobsMap());
+        HashMap<String, byte[]> mergedBlobs = new HashMap<>();
+        List<Commit> newCommits = new ArrayList<>();
+        List<HashMap<String, String>> newCommitsPrevBlobs = new ArrayList<>();
+        for (String id : toReplay) {
+            Commit commit = Commit.readObject(id);
+            Commit parent = Commit.readObject(commit.getParentSHA1());
+            HashMap<String, String> parentBlobs = parent.getBlobsMap();
+            HashMap<String, String> prevBlobs = new HashMap<>(newBlobs);
+            for (String path : CommitGraph.changedPaths(commit.getBlobsMap(), parentBlobs)) {
+                String replayed = CmdUtils.replayPath(path, parentBlobs.get(path),
+                        commit.getBlobsMap().get(path), newBlobs.get(path), mergedBlobs);
+                if (replayed == null) {
+                    newBlobs.remove(path);
+                } else {
+                    newBlobs.put(path, replayed);
                 }
             }
-            // Case 8
-            if (inCurrent && !inGivenBr) {
-                if (prevHash.equals(currentHash)) {
-                    newIndex.remove(prevName);
-                } // Case 10.ii
-                else {
-                    String headContent = Blob.readFile(currentHash);
-                    String newContent = "<<<<<<< HEAD\n" + headContent + "=======" + ">>>>>>>\n";
-                    String newContentHash = CmdUtils.writeConflictedMergeFile(prevName, newContent);
-                    // Update index
-                    newIndex.put(prevName, newContentHash);
-                }
+            // Already applied upstream: drop the commit.
+            if (newBlobs.equals(prevBlobs)) continue;
+            Commit newCommit = new Commit(commit.getMessage(), commit.getTime(),
+                    new String[]{newParent}, new HashMap<>(newBlobs));
+            newParent = newCommit.id();
+            newCommits.add(newCommit);
+            newCommitsPrevBlobs.add(prevBlobs);
+        }
+
+        /* Every commit replayed cleanly: write blobs, then commits, then materialize the result once */
+        for (byte[] content : mergedBlobs.values()) Blob.writeBytes(content);
+        for (int i = 0; i < newCommits.size(); i++) {
+            Commit newCommit = newCommits.get(i);
+            CommitGraph.add(newCommit.writeObject(), newCommit, newCommitsPrevBlobs.get(i));
+        }
+        Gitlet.writeBranch(currentBranch, newParent);
+        Commit newHead = newCommits.isEmpty() ? givenBrCommit : newCommits.get(newCommits.size() - 1);
+        newHead.writeWorkingDir();
+        Gitlet.setIndexMap(newHead.getBlobsMap());
+    }
+
+    /**
+     * Run many commands in this process, one per line of a file, or of standard input.
+     * Operands are separated by spaces, and double quotes group an operand containing spaces;
+     * blank lines and lines starting with # are skipped.
+     * HEAD, the index and the head commit are kept in memory between commands;
+     * HEAD and the index are written at each commit and when the batch ends.
+     * A failing command prints its message as usual, and the batch goes on with the next line;
+     * so does one that fails unexpectedly. The state is flushed however the batch ends.
+     * @param args length == 0 or 1, [file name]
+     */
+    public static void batch(String... args) {
+        // Check the args length
+        CmdUtils.checkArgsRange(0, 2, args);
+        BufferedReader in;
+        if (args.length == 0) {
+            in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        } else {
+            File script = Repository.file(args[0]);
+            if (!script.isFile()) Gitlet.printAndExit("File does not exist.");
+            try {
+                in = Files.newBufferedReader(script.toPath(), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw Utils.error(e.getMessage());
             }
-            // Case 9
-            if (!inCurrent && inGivenBr) {
-                // 9: do nothing
-                // Case 10.ii
-                if (!prevHash.equals(givenBranchHash)) {
-                    String givenBrContent = Blob.readFile(givenBranchHash);
-                    String newContent = "<<<<<<< HEAD\n" + "=======" + givenBrContent +  ">>>>>>>\n";
-                    String newContentHash = CmdUtils.writeConflictedMergeFile(prevName, newContent);
-                    // Update index
-                    newIndex.put(prevName, newContentHash);
-                    // Print conflict message
-                    Utils.message("Encountered a merge conflict.");
+        }
+
+        Gitlet.setBatchMode(true);
+        try (in) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] words = Main.splitLine(line);
+                if (words.length == 0) continue;
+                try {
+                    if (words[0].equals("batch")) Gitlet.printAndExit("Cannot nest batch.");
+                    Main.execute(words);
+                } catch (GitletException e) {
+                    if (e.getMessage() != null) Utils.message(e.getMessage());
+                } catch (RuntimeException e) {
+                    Utils.message(e.getMessage() != null ? e.getMessage() : e.toString());
                 }
             }
-        });
-        // Case 6
-        headBlobsMap.forEach((currentName, currentHash) -> {
-            boolean inSplitPoint = prevBlobsMap.containsKey(currentName);
-            boolean inGivenBranch = givenBrBlobsMap.containsKey(currentName);
-            // Case 6
-            if (!inSplitPoint && !inGivenBranch) {
-                // do notiong to remain the file.
-            }
-            // Case 10.3
-            if (!inSplitPoint && inGivenBranch) {
-                String givenBrHash = givenBrBlobsMap.get(currentName);
-                String givenBrContent = Blob.readFile(givenBranchHash);
-                String headContent = Blob.readFile(currentHash);
-                String newContent = "<<<<<<< HEAD\n" + headContent + "=======" + givenBrContent +  ">>>>>>>\n";
-                // Write the newContent to working directory
-                String newContentHash = CmdUtils.writeConflictedMergeFile(currentName, newContent);
-                // Update index
-                newIndex.put(currentName, newContentHash);
-                // Print conflict message
-                Utils.message("Encountered a merge conflict.");
-            }
-        });
-        // Case 7
-        givenBrBlobsMap.forEach((brName, brHash) -> {
-            boolean inSplitPoint = prevBlobsMap.containsKey(brName);
-            boolean inCurrentBranch = headBlobsMap.containsKey(brName);
-            // 7
-            if (!inSplitPoint && !inCurrentBranch) {
-                // checkout
-                Blob.writeBackFromGit(brHash, brName);
-                // add to index
-                newIndex.put(brName, brHash);
-                // Print conflict message
-                Utils.message("Encountered a merge conflict.");
-            }
-        });
-
-        /* Write new indexfile to .gitlet, and commit */
-        Gitlet.setIndexMap(newIndex);
-        String commitMessage = "Merged " + givenBranch + " into " + currentBranch + ".";
-        CmdUtils.commitHelper(commitMessage, currentBranchHash, givenBranchHash);
+        } catch (IOException e) {
+            throw Utils.error(e.getMessage());
+        } finally {
+            Gitlet.setBatchMode(false);
+        }
     }
 }
@@ -1,12 +1,26 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
 import java.util.Date;
 import java.util.HashMap;
-
-import static java.lang.System.exit;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
 
 public class CmdUtils {
     /**
@@ -15,8 +29,7 @@ public class CmdUtils {
      */
     static void checkRep() {
         if (!Gitlet.isInited()) {
-            Utils.message("Not in an initialized Gitlet directory.");
-            exit(0);
+            Gitlet.printAndExit("Not in an initialized Gitlet directory.");
         }
     }
 
@@ -32,29 +45,171 @@ public class CmdUtils {
      */
     static void checkArgsRange(int low, int high, String... args) {
         if (args.length < low || args.length >= high) {
-            Utils.message("Incorrect operands.");
-            System.exit(0);
+            Gitlet.printAndExit("Incorrect operands.");
         }
     }
 
+    /**
+     * Expand the operands of add into working file names.
+     * A directory stands for every file under it, "." for the whole working directory,
+     * and an operand containing *, ? or [ is a glob matched against the working files.
+     * If a file does not exist or a glob matches nothing, print "File does not exist." and exit.
+     * @param pathspecs operands, relative to the root of the repository
+     * @return the file names, sorted
+     */
+    static TreeSet<String> resolvePathspecs(List<String> pathspecs) {
+        TreeSet<String> filenames = new TreeSet<>();
+        List<String> workingFiles = null;
+        for (String pathspec : pathspecs) {
+            String path = Paths.get(pathspec).normalize().toString().replace(File.separatorChar, '/');
+            File file = Repository.file("./" + path);
+            if (file.isFile()) {
+                filenames.add(path);
+                continue;
+            }
+            boolean isGlob = pathspec.matches(".*[*?\\[].*");
+            if (!file.isDirectory() && !isGlob) Gitlet.printAndExit("File does not exist.");
+            // The working directory is listed once, however many operands need it.
+            if (workingFiles == null) workingFiles = WorkTree.list();
+            if (file.isDirectory()) {
+                String prefix = path.isEmpty() ? "" : path + "/";
+                for (String filename : workingFiles) {
+                    if (filename.startsWith(prefix)) filenames.add(filename);
+                }
+                continue;
+            }
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + path);
+            boolean matched = false;
+            for (String filename : workingFiles) {
+                if (matcher.matches(Paths.get(filename))) {
+                    filenames.add(filename);
+                    matched = true;
+                }
+            }
+            if (!matched) Gitlet.printAndExit("File does not exist.");
+        }
+        return filenames;
+    }
+
     static void printCommit(String commitSHA1) {
-        Commit currentCommit = Commit.readObject(commitSHA1);
-        String currentSHA1 = commitSHA1;
+        System.out.print(formatCommit(commitSHA1, Commit.readObject(commitSHA1)));
+    }
 
+    /**
+     * Parse the date of a --since or --until option, print "Incorrect operands." if it is not one.
+     * @param date 2024-01-31 for midnight, or 2024-01-31T13:45[:30], in the local time zone.
+     */
+    static Date parseDate(String date) {
+        try {
+            LocalDateTime dateTime = date.contains("T") ? LocalDateTime.parse(date) : LocalDate.parse(date).atStartOfDay();
+            return Date.from(dateTime.atZone(ZoneId.systemDefault()).toInstant());
+        } catch (DateTimeParseException e) {
+            Gitlet.printAndExit("Incorrect operands.");
+            return null;
+        }
+    }
+
+    /**
+     * @return the log entry of a commit, ending with an empty line.
+     */
+    static String formatCommit(String commitSHA1, Commit commit) {
         // Setup time format
         DateFormat dateFormat = new SimpleDateFormat("EEE MMM d hh:mm:ss YYYY Z");
-        String strDate = dateFormat.format(currentCommit.getTime());
-        // Print log
-        System.out.println("===");
-        System.out.println("commit " + currentSHA1);
-        if (currentCommit.hasTwoParents()) {
-            String p1 = currentCommit.getParentSHA1().substring(0, 7);
-            String p2 = currentCommit.getParent2SHA1().substring(0, 7);
-            System.out.println("Merge: " + p1 + " " + p2);
+        String strDate = dateFormat.format(commit.getTime());
+        StringBuilder sb = new StringBuilder();
+        sb.append("===\n");
+        sb.append("commit ").append(commitSHA1).append('\n');
+        if (commit.hasTwoParents()) {
+            String p1 = commit.getParentSHA1().substring(0, 7);
+            String p2 = commit.getParent2SHA1().substring(0, 7);
+            sb.append("Merge: ").append(p1).append(' ').append(p2).append('\n');
         }
-        System.out.println("Date: " + strDate);
-        System.out.println(currentCommit.getMessage());
-        System.out.println(); // newline
+        sb.append("Date: ").append(strDate).append('\n');
+        sb.append(commit.getMessage()).append('\n');
+        sb.append('\n');
+        return sb.toString();
+    }
+
+    /**
+     * Print the first-parent history of the head, restricted to commits that changed PATH.
+     * Commits whose Bloom filter rules the path out are skipped without being deserialized.
+     * @param path file name in the working directory
+     */
+    static void logPath(String path) {
+        String currentSHA1 = Gitlet.getHeadSHA1();
+        while (currentSHA1 != null) {
+            CommitGraph.Entry entry = CommitGraph.get(currentSHA1);
+            if (entry.mayHaveChanged(path)) {
+                // Rule out false positives of the filter.
+                String blobHash = Commit.readObject(currentSHA1).getBlobsMap().get(path);
+                Commit parent = Commit.readObject(entry.parent1);
+                String parentBlobHash = (parent == null) ? null : parent.getBlobsMap().get(path);
+                if (!Objects.equals(blobHash, parentBlobHash)) printCommit(currentSHA1);
+            }
+            currentSHA1 = entry.parent1;
+        }
+    }
+
+    /**
+     * Find the latest common ancestor of two commits.
+     * @return the common ancestor nearest to HEADSHA1 in BFS order.
+     */
+    static String findSplitPoint(String headSHA1, String givenSHA1) {
+        // Ordered list of all ancestors of head and given branch. (for multiple parents, it is BFS ordered)
+        List<String> ancestorsOfHead = Gitlet.getAllAncestors(headSHA1);
+        Set<String> ancestorOfGivenBrSet = new HashSet<>(Gitlet.getAllAncestors(givenSHA1));
+        // Find the split point: Iterate the ancestorsOfHead, find one in ancestorsOfGivenBr
+        for (String currentHash : ancestorsOfHead) {
+            if (ancestorOfGivenBrSet.contains(currentHash)) {
+                //split point found!
+                return currentHash;
+            }
+        }
+        // Should never be here
+        throw Utils.error("Find split point error");
+    }
+
+    /**
+     * Apply one path's change from a replayed commit onto the new base, in memory.
+     * If the base changed the path too, the two versions are merged line by line, and the
+     * merged content is kept in MERGEDBLOBS rather than written, so a later conflict leaves
+     * nothing behind.
+     * If that conflicts, print "Rebase conflict in [file name]; nothing was changed." and exit.
+     * @param path file name
+     * @param origHash blob in the replayed commit's parent, null if absent.
+     * @param mineHash blob in the replayed commit, null if deleted.
+     * @param baseHash blob in the new base, null if absent.
+     * @param mergedBlobs blob id -> content of the blobs merged so far, not written yet
+     * @return blob id for the path in the new commit, null if the path is deleted.
+     */
+    static String replayPath(String path, String origHash, String mineHash, String baseHash,
+                             Map<String, byte[]> mergedBlobs) {
+        if (Objects.equals(baseHash, origHash) || Objects.equals(baseHash, mineHash)) return mineHash;
+        if (origHash != null && mineHash != null && baseHash != null) {
+            StringWriter merged = new StringWriter();
+            boolean conflicted;
+            try {
+                conflicted = Merge3.merge(Diff.splitLines(readReplayed(origHash, mergedBlobs)),
+                        Diff.splitLines(readReplayed(baseHash, mergedBlobs)),
+                        Diff.splitLines(readReplayed(mineHash, mergedBlobs)), merged);
+            } catch (IOException e) {
+                throw Utils.error(e.getMessage());
+            }
+            if (!conflicted) {
+                byte[] content = merged.toString().getBytes(StandardCharsets.UTF_8);
+                String id = HashAlgorithm.current().hash(content);
+                mergedBlobs.put(id, content);
+                return id;
+            }
+        }
+        Gitlet.printAndExit("Rebase conflict in " + path + "; nothing was changed.");
+        return null;
+    }
+
+    /** @return the content of a blob, merged earlier in the rebase or stored. */
+    private static String readReplayed(String id, Map<String, byte[]> mergedBlobs) {
+        byte[] content = mergedBlobs.get(id);
+        return (content != null) ? new String(content, StandardCharsets.UTF_8) : Blob.readFile(id);
     }
 
     static void commitHelper(String message, String parent1SHA1, String parent2SHA1) {
@@ -66,8 +221,7 @@ public class CmdUtils {
 
         // Check if there is a change from previous commit.
         if (headBlobsMap.equals(indexBlobsMap)) {
-            Utils.message(" No changes added to the commit.");
-            System.exit(0);
+            Gitlet.printAndExit(" No changes added to the commit.");
         }
         // Setup Commit object
         // HACK: ignore the detached HEAD
@@ -77,27 +231,40 @@ public class CmdUtils {
             parentsList[0] = parent1SHA1;
         } else {
             parentsList = new String[2];
+            parentsList[0] = parent1SHA1;
             parentsList[1] = parent2SHA1;
         }
         Commit currentCommit = new Commit(message, new Date(), parentsList, indexBlobsMap);
         // Write the current Commit
         String currentCommitSHA1 = currentCommit.writeObject();
+        CommitGraph.add(currentCommitSHA1, currentCommit, headBlobsMap);
 
         // Setup ref: edit HEAD -> a branch -> SHA1
         Gitlet.writeHeadSHA1(currentCommitSHA1);
+        // A commit is a batch boundary: HEAD and the index reach the disk with it.
+        Gitlet.flush();
     }
 
     /**
-     * Write the new file after merge conflict to .gitlet
-     * @param filename name of the file where conflict happen
-     * @param content new content of that file like "<<HEAD\n===\n>>>"
-     * @return SHA1 hash of the new file
+     * Print the unified diff of every file whose blob hash differs in the two maps.
+     * @param oldMap filename -> blob SHA1 of the old version
+     * @param newMap filename -> blob SHA1 of the new version
+     * @param newFromWorkingDir read the new version from the working directory instead of .gitlet
      */
-    static String writeConflictedMergeFile(String filename, String content) {
-        // Write newContent to working directory
-        File currentFile = new File("./" + filename);
-        Utils.writeContents(currentFile, content);
-        // Write newContent to .gitlet
-        return Blob.writeFile(filename);
+    static void printMapsDiff(HashMap<String, String> oldMap, HashMap<String, String> newMap,
+                              boolean newFromWorkingDir) {
+        TreeSet<String> fileNames = new TreeSet<>(oldMap.keySet());
+        fileNames.addAll(newMap.keySet());
+        for (String fileName : fileNames) {
+            String oldHash = oldMap.get(fileName);
+            String newHash = newMap.get(fileName);
+            if (oldHash != null && oldHash.equals(newHash)) continue;
+            String oldContent = (oldHash == null) ? null : Blob.readFile(oldHash);
+            String newContent = null;
+            if (newHash != null) {
+                newContent = newFromWorkingDir ? Blob.getFileContent(fileName) : Blob.readFile(newHash);
+            }
+            System.out.print(Diff.unified(fileName, oldContent, newContent));
+        }
     }
 }
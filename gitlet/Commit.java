@@ -2,9 +2,11 @@ package gitlet;
 
 import java.io.File;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.function.Predicate;
 
 public class Commit implements Serializable {
     private String message;
@@ -50,21 +52,38 @@ public class Commit implements Serializable {
         return this.parent[1];
     }
 
+    /**
+     * @return the id the commit has once written.
+     */
+    public String id() {
+        return HashAlgorithm.current().hash(Utils.serialize(this));
+    }
+
     /**
      * Write this object to ./.gitlet/objects/sha1_of_this
      * @return SHA1 of this object
      */
     public String writeObject() {
-        String commitSHA1 = Utils.sha1(Utils.serialize(this));
-        File commitFile = new File( Gitlet.OBJECT_PATH + commitSHA1);
+        String commitSHA1 = id();
+        File commitFile = Repository.file(Gitlet.OBJECT_PATH + commitSHA1);
         Utils.writeObject(commitFile, this);
+        ObjectFilter.recordWrite(commitSHA1);
         return commitSHA1;
     }
 
+    /**
+     * A commit object is a serialized Java object, whose stream starts with 0xACED, while a blob
+     * almost never does; readers scanning the whole store skip most blobs after two bytes.
+     * @param head at least the first two bytes of an object
+     */
+    static boolean isSerialized(byte[] head) {
+        return head.length >= 2 && (head[0] & 0xff) == 0xAC && (head[1] & 0xff) == 0xED;
+    }
+
     public static String abbrevSHA1toFull(String sha1) {
         String result = null;
-        if (sha1.length() != Gitlet.SHA1_LENGTH) {
-            List<String> objNameList = Utils.plainFilenamesIn(Gitlet.OBJECT_PATH);
+        if (sha1.length() != HashAlgorithm.current().hexLength()) {
+            List<String> objNameList = Utils.plainFilenamesIn(Repository.file(Gitlet.OBJECT_PATH));
             for (String objName : objNameList) {
                 if (objName.contains(sha1)) {
                     result = objName;
@@ -84,7 +103,7 @@ public class Commit implements Serializable {
     public static Commit readObject(String sha1) {
         if (sha1 == null) return null;
         sha1 = abbrevSHA1toFull(sha1);
-        File commitFile = new File(Gitlet.OBJECT_PATH + sha1);
+        File commitFile = Repository.file(Gitlet.OBJECT_PATH + sha1);
         Commit result = null;
         try {
             result = Utils.readObject(commitFile, Commit.class);
@@ -94,17 +113,26 @@ public class Commit implements Serializable {
         return result;
     }
 
+    /**
+     * Replace the working files with the files of this commit.
+     * With sparse checkout, files outside the cone are neither deleted nor written.
+     */
     public void writeWorkingDir() {
-        List<String> filesList = Utils.plainFilenamesIn("./");
+        Predicate<String> cone = SparseCheckout.cone();
+        List<String> filesList = WorkTree.list();
         filesList.forEach((filename) -> {
-            Utils.restrictedDelete("./" + filename);
+            if (cone.test(filename)) WorkTree.delete(filename);
         });
 
+        List<String> inCone = new ArrayList<>();
         blobs.forEach((fileName, fileHash) -> {
-            File blobFile = new File(Gitlet.OBJECT_PATH + fileHash);
-            String contents = Utils.readContentsAsString(blobFile);
-            File actualFile = new File("./" + fileName);
-            Utils.writeContents(actualFile, contents);
+            if (cone.test(fileName)) inCone.add(fileName);
         });
+        // A partial clone fetches all missing blobs in one batch instead of one at a time.
+        Promisor.prefetch(inCone.stream().map(blobs::get).toList());
+        for (String fileName : inCone) {
+            File blobFile = Promisor.objectFile(blobs.get(fileName));
+            Blob.writeToFile(blobFile, Repository.file("./" + fileName));
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,161 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Sidecar history index, .gitlet/commit-graph, one line per commit:
+ *  "[commit id] [parent1 id | -] [parent2 id | -] [changed-path Bloom filter in hex | *]"
+ * The filter holds every path whose blob differs from the first parent, so a path-limited
+ * walk can follow parents and skip commits that definitely did not touch the path
+ * without deserializing them. "*" means too many paths changed: always check the commit.
+ * Commits made before the index existed are added the first time a walk reaches them.
+ */
+public class CommitGraph {
+    public static final File GRAPH_FILE = new File("./.gitlet/commit-graph");
+    /** Bits per changed path and number of probes, as git's changed-path filters use. */
+    private static final int BITS_PER_PATH = 10;
+    private static final int NUM_HASHES = 7;
+    /** Above this many changed paths no filter is kept. */
+    private static final int MAX_PATHS = 512;
+
+    /** Parents and changed-path filter of one commit. */
+    static class Entry {
+        final String parent1, parent2;
+        /** null if the commit changed too many paths to filter. */
+        final byte[] bloom;
+
+        Entry(String parent1, String parent2, byte[] bloom) {
+            this.parent1 = parent1;
+            this.parent2 = parent2;
+            this.bloom = bloom;
+        }
+
+        /**
+         * @return false if the commit definitely did not change the path.
+         */
+        boolean mayHaveChanged(String path) {
+            if (bloom == null) return true;
+            if (bloom.length == 0) return false;
+            int bits = bloom.length * 8;
+            long h = pathHash(path);
+            int h1 = (int) h, h2 = (int) (h >>> 32);
+            for (int i = 0; i < NUM_HASHES; i++) {
+                int bit = Math.floorMod(h1 + i * h2, bits);
+                if ((bloom[bit >>> 3] & (1 << (bit & 7))) == 0) return false;
+            }
+            return true;
+        }
+    }
+
+    private static long pathHash(String path) {
+        XxHash64 xx = new XxHash64();
+        xx.update(path.getBytes(StandardCharsets.UTF_8));
+        return xx.digest();
+    }
+
+    /**
+     * @return paths whose blob differs between the commit and its first parent.
+     */
+    static Set<String> changedPaths(Map<String, String> blobs, Map<String, String> parentBlobs) {
+        Set<String> changed = new HashSet<>();
+        blobs.forEach((path, hash) -> {
+            if (!hash.equals(parentBlobs.get(path))) changed.add(path);
+        });
+        parentBlobs.forEach((path, hash) -> {
+            if (!blobs.containsKey(path)) changed.add(path);
+        });
+        return changed;
+    }
+
+    static byte[] buildFilter(Set<String> paths) {
+        if (paths.size() > MAX_PATHS) return null;
+        byte[] bloom = new byte[(paths.size() * BITS_PER_PATH + 7) / 8];
+        int bits = bloom.length * 8;
+        for (String path : paths) {
+            long h = pathHash(path);
+            int h1 = (int) h, h2 = (int) (h >>> 32);
+            for (int i = 0; i < NUM_HASHES; i++) {
+                int bit = Math.floorMod(h1 + i * h2, bits);
+                bloom[bit >>> 3] |= (byte) (1 << (bit & 7));
+            }
+        }
+        return bloom;
+    }
+
+    /**
+     * @return the entries of the current repository, read once per Repository.
+     */
+    private static synchronized HashMap<String, Entry> load() {
+        Repository repo = Repository.current();
+        if (repo.commitGraph != null) return repo.commitGraph;
+        HashMap<String, Entry> entries = new HashMap<>();
+        repo.commitGraph = entries;
+        if (!Repository.file(GRAPH_FILE).isFile()) return entries;
+        for (String line : Utils.readContentsAsString(Repository.file(GRAPH_FILE)).split("\n")) {
+            // -1 keeps the empty filter of a commit that changed no path.
+            String[] fields = line.split(" ", -1);
+            if (fields.length != 4) continue;
+            byte[] bloom = fields[3].equals("*") ? null : fromHex(fields[3]);
+            entries.put(fields[0], new Entry(fields[1].equals("-") ? null : fields[1],
+                    fields[2].equals("-") ? null : fields[2], bloom));
+        }
+        return entries;
+    }
+
+    /**
+     * Index a commit and append it to the commit-graph file.
+     * @param commitId id of the commit
+     * @param commit the commit itself
+     * @param parentBlobs blobs map of its first parent, empty for the initial commit.
+     */
+    static synchronized Entry add(String commitId, Commit commit, Map<String, String> parentBlobs) {
+        HashMap<String, Entry> loaded = load();
+        Entry existing = loaded.get(commitId);
+        if (existing != null) return existing;
+        byte[] bloom = buildFilter(changedPaths(commit.getBlobsMap(), parentBlobs));
+        Entry entry = new Entry(commit.getParentSHA1(), commit.getParent2SHA1(), bloom);
+        loaded.put(commitId, entry);
+        String line = commitId + " " + orDash(entry.parent1) + " " + orDash(entry.parent2) + " "
+                + (bloom == null ? "*" : HashAlgorithm.toHex(bloom)) + "\n";
+        if (!Gitlet.isInited()) return entry;
+        try {
+            Files.write(Repository.file(GRAPH_FILE).toPath(), line.getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw Utils.error(e.getMessage());
+        }
+        return entry;
+    }
+
+    /**
+     * Get the index entry of a commit, indexing it first if needed.
+     * @param commitId full id of the commit
+     */
+    static Entry get(String commitId) {
+        Entry entry = load().get(commitId);
+        if (entry != null) return entry;
+        Commit commit = Commit.readObject(commitId);
+        Commit parent = Commit.readObject(commit.getParentSHA1());
+        return add(commitId, commit, parent == null ? new HashMap<>() : parent.getBlobsMap());
+    }
+
+    private static String orDash(String id) {
+        return id == null ? "-" : id;
+    }
+
+    private static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+}
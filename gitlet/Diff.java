@@ -0,0 +1,298 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Line-level diff engine.
+ * Lines are interned to int ids first, so all comparisons are on primitives.
+ * Common prefix and suffix are trimmed, then lines that are unique on both sides
+ * are used as patience anchors, and the gaps between anchors are diffed with Myers O(ND).
+ */
+public class Diff {
+    /** Number of context lines around a hunk in unified output. */
+    public static final int CONTEXT = 3;
+
+    /**
+     * A region that differs: lines [beginA, endA) of A are replaced by lines [beginB, endB) of B.
+     * An empty range on one side is a pure insertion or deletion.
+     */
+    public static class Edit {
+        public final int beginA, endA, beginB, endB;
+
+        Edit(int beginA, int endA, int beginB, int endB) {
+            this.beginA = beginA;
+            this.endA = endA;
+            this.beginB = beginB;
+            this.endB = endB;
+        }
+
+        @Override
+        public String toString() {
+            return "Edit[" + beginA + "-" + endA + "," + beginB + "-" + endB + "]";
+        }
+    }
+
+    /**
+     * Split the text into lines, each line keeps its trailing '\n'.
+     * The last line has no '\n' if the text does not end with one.
+     * @param text content of a file, null is treated as empty.
+     * @return list of lines, empty for empty text.
+     */
+    public static List<String> splitLines(String text) {
+        List<String> lines = new ArrayList<>();
+        if (text == null) return lines;
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                lines.add(text.substring(start, i + 1));
+                start = i + 1;
+            }
+        }
+        if (start < text.length()) lines.add(text.substring(start));
+        return lines;
+    }
+
+    /**
+     * Compute the edits turning A into B.
+     * @return ordered, non-overlapping list of edits.
+     */
+    public static List<Edit> diff(List<String> a, List<String> b) {
+        // Intern every distinct line to an int id.
+        HashMap<String, Integer> ids = new HashMap<>();
+        int[] ia = intern(a, ids);
+        int[] ib = intern(b, ids);
+
+        boolean[] deletedA = new boolean[ia.length];
+        boolean[] insertedB = new boolean[ib.length];
+        diffRange(ia, 0, ia.length, ib, 0, ib.length, deletedA, insertedB);
+
+        // Unmarked lines of A and B are the common subsequence, pair them up in order.
+        List<Edit> edits = new ArrayList<>();
+        int i = 0, j = 0;
+        while (i < ia.length || j < ib.length) {
+            if (i < ia.length && j < ib.length && !deletedA[i] && !insertedB[j]) {
+                i++;
+                j++;
+                continue;
+            }
+            int beginA = i, beginB = j;
+            while (i < ia.length && deletedA[i]) i++;
+            while (j < ib.length && insertedB[j]) j++;
+            edits.add(new Edit(beginA, i, beginB, j));
+        }
+        return edits;
+    }
+
+    private static int[] intern(List<String> lines, HashMap<String, Integer> ids) {
+        int[] result = new int[lines.size()];
+        int i = 0;
+        for (String line : lines) {
+            Integer id = ids.get(line);
+            if (id == null) {
+                id = ids.size();
+                ids.put(line, id);
+            }
+            result[i++] = id;
+        }
+        return result;
+    }
+
+    /**
+     * Mark the lines of a[aLo, aHi) and b[bLo, bHi) that are not in their common subsequence.
+     */
+    private static void diffRange(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi,
+                                  boolean[] deletedA, boolean[] insertedB) {
+        // Trim common prefix and suffix.
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            aLo++;
+            bLo++;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi--;
+            bHi--;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            for (int i = aLo; i < aHi; i++) deletedA[i] = true;
+            for (int j = bLo; j < bHi; j++) insertedB[j] = true;
+            return;
+        }
+
+        int[][] anchors = patienceAnchors(a, aLo, aHi, b, bLo, bHi);
+        if (anchors.length == 0) {
+            myers(a, aLo, aHi, b, bLo, bHi, deletedA, insertedB);
+            return;
+        }
+        // Anchors are matched lines, recurse into the gaps between them.
+        int prevA = aLo, prevB = bLo;
+        for (int[] anchor : anchors) {
+            diffRange(a, prevA, anchor[0], b, prevB, anchor[1], deletedA, insertedB);
+            prevA = anchor[0] + 1;
+            prevB = anchor[1] + 1;
+        }
+        diffRange(a, prevA, aHi, b, prevB, bHi, deletedA, insertedB);
+    }
+
+    /**
+     * Patience heuristic: lines occurring exactly once in both ranges,
+     * reduced to the longest run that is increasing on both sides.
+     * @return pairs {indexInA, indexInB}, increasing in both.
+     */
+    private static int[][] patienceAnchors(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi) {
+        // id -> {count in A, count in B, position in A, position in B}
+        HashMap<Integer, int[]> occurrences = new HashMap<>();
+        for (int i = aLo; i < aHi; i++) {
+            int[] occ = occurrences.computeIfAbsent(a[i], (k) -> new int[4]);
+            occ[0]++;
+            occ[2] = i;
+        }
+        for (int j = bLo; j < bHi; j++) {
+            int[] occ = occurrences.get(b[j]);
+            if (occ == null) continue;
+            occ[1]++;
+            occ[3] = j;
+        }
+        // Unique lines in A order, with their position in B.
+        List<int[]> unique = new ArrayList<>();
+        for (int i = aLo; i < aHi; i++) {
+            int[] occ = occurrences.get(a[i]);
+            if (occ[0] == 1 && occ[1] == 1) unique.add(new int[]{i, occ[3]});
+        }
+        if (unique.isEmpty()) return new int[0][];
+
+        // Longest increasing subsequence on B positions (patience sorting).
+        int n = unique.size();
+        int[] tails = new int[n];
+        int[] prev = new int[n];
+        int len = 0;
+        for (int i = 0; i < n; i++) {
+            int bPos = unique.get(i)[1];
+            int lo = 0, hi = len;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (unique.get(tails[mid])[1] < bPos) lo = mid + 1; else hi = mid;
+            }
+            prev[i] = (lo > 0) ? tails[lo - 1] : -1;
+            tails[lo] = i;
+            if (lo == len) len++;
+        }
+        int[][] result = new int[len][];
+        for (int i = tails[len - 1], k = len - 1; i >= 0; i = prev[i], k--) {
+            result[k] = unique.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Myers' greedy O(ND) algorithm on a[aLo, aHi) and b[bLo, bHi).
+     * Only the slice [-d, d] of V is kept for each step d, so memory is O(D^2).
+     */
+    private static void myers(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi,
+                              boolean[] deletedA, boolean[] insertedB) {
+        int n = aHi - aLo, m = bHi - bLo;
+        int max = n + m;
+        int offset = max + 1;
+        int[] v = new int[2 * max + 3];
+        List<int[]> trace = new ArrayList<>();
+        int finalD = -1;
+        for (int d = 0; d <= max && finalD < 0; d++) {
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])) {
+                    x = v[offset + k + 1];
+                } else {
+                    x = v[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if (x >= n && y >= m) {
+                    finalD = d;
+                    break;
+                }
+            }
+            int[] slice = new int[2 * d + 1];
+            System.arraycopy(v, offset - d, slice, 0, 2 * d + 1);
+            trace.add(slice);
+        }
+
+        // Walk back from (n, m), each step is one deletion or insertion.
+        int x = n, y = m;
+        for (int d = finalD; d > 0; d--) {
+            int[] prevV = trace.get(d - 1);
+            int k = x - y;
+            boolean down = (k == -d || (k != d && prevV[k - 1 + d - 1] < prevV[k + 1 + d - 1]));
+            int prevK = down ? k + 1 : k - 1;
+            int prevX = prevV[prevK + d - 1];
+            int prevY = prevX - prevK;
+            if (down) {
+                insertedB[bLo + prevY] = true;
+            } else {
+                deletedA[aLo + prevX] = true;
+            }
+            x = prevX;
+            y = prevY;
+        }
+    }
+
+    /**
+     * Render the difference between two versions of a file in unified format.
+     * @param fileName name of the file
+     * @param aText old content, null if the file is absent.
+     * @param bText new content, null if the file is absent.
+     * @return the diff text, empty if nothing changed.
+     */
+    public static String unified(String fileName, String aText, String bText) {
+        List<String> a = splitLines(aText);
+        List<String> b = splitLines(bText);
+        List<Edit> edits = diff(a, b);
+        if (edits.isEmpty() && (aText == null) == (bText == null)) return "";
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("diff --git a/").append(fileName).append(" b/").append(fileName).append('\n');
+        if (aText == null) sb.append("new file\n");
+        if (bText == null) sb.append("deleted file\n");
+        sb.append("--- ").append(aText == null ? "/dev/null" : "a/" + fileName).append('\n');
+        sb.append("+++ ").append(bText == null ? "/dev/null" : "b/" + fileName).append('\n');
+
+        int i = 0;
+        while (i < edits.size()) {
+            // Group edits whose context would overlap into one hunk.
+            int j = i;
+            while (j + 1 < edits.size() && edits.get(j + 1).beginA - edits.get(j).endA <= 2 * CONTEXT) j++;
+            Edit first = edits.get(i), last = edits.get(j);
+            int aStart = Math.max(0, first.beginA - CONTEXT);
+            int aEnd = Math.min(a.size(), last.endA + CONTEXT);
+            int bStart = first.beginB - (first.beginA - aStart);
+            int bEnd = last.endB + (aEnd - last.endA);
+            sb.append("@@ -").append(hunkRange(aStart, aEnd - aStart))
+                    .append(" +").append(hunkRange(bStart, bEnd - bStart)).append(" @@\n");
+            int pos = aStart;
+            for (int e = i; e <= j; e++) {
+                Edit edit = edits.get(e);
+                for (; pos < edit.beginA; pos++) appendLine(sb, ' ', a.get(pos));
+                for (int k = edit.beginA; k < edit.endA; k++) appendLine(sb, '-', a.get(k));
+                for (int k = edit.beginB; k < edit.endB; k++) appendLine(sb, '+', b.get(k));
+                pos = edit.endA;
+            }
+            for (; pos < aEnd; pos++) appendLine(sb, ' ', a.get(pos));
+            i = j + 1;
+        }
+        return sb.toString();
+    }
+
+    private static String hunkRange(int start, int length) {
+        if (length == 1) return Integer.toString(start + 1);
+        // An empty range refers to the line before it.
+        return (length == 0 ? start : start + 1) + "," + length;
+    }
+
+    private static void appendLine(StringBuilder sb, char prefix, String line) {
+        sb.append(prefix).append(line);
+        if (!line.endsWith("\n")) sb.append("\n\\ No newline at end of file\n");
+    }
+}
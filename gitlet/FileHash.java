@@ -0,0 +1,203 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Hash working-tree files in constant memory.
+ * The file is fed to the hash either through FileChannel.map windows or through
+ * a reused direct buffer, never as a whole byte[] or String.
+ *  -Dgitlet.hashMode=auto|mmap|read   auto maps files of at least MMAP_MIN_SIZE bytes.
+ *  -Dgitlet.mmapWindow=BYTES          size of each mapped window.
+ *
+ * Object ids are expensive to compute, so .gitlet/filecache remembers, per file,
+ * the size and XXH64 of the version last hashed together with its object id.
+ * A file whose size and XXH64 still match reuses that id.
+ * With a running FsMonitor, files it did not report as changed are not read at all.
+ */
+public class FileHash {
+    public static final String MODE = System.getProperty("gitlet.hashMode", "auto");
+    public static final long MMAP_WINDOW = Long.getLong("gitlet.mmapWindow", 64L << 20);
+    /** Below this size a plain read is cheaper than setting up a mapping. */
+    public static final long MMAP_MIN_SIZE = 1L << 20;
+    public static final File CACHE_FILE = new File("./.gitlet/filecache");
+    private static final int READ_BUFFER_SIZE = 64 << 10;
+    private static final ThreadLocal<ByteBuffer> READ_BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(READ_BUFFER_SIZE));
+
+    /**
+     * @return object id of the raw bytes of the file, in the repository's algorithm.
+     */
+    static String objectId(File file) {
+        return HashAlgorithm.current().hashFile(file);
+    }
+
+    /**
+     * @return XXH64 of the raw bytes of the file.
+     */
+    static long xxHash64(File file) {
+        XxHash64 xx = new XxHash64();
+        forEachBuffer(file, xx::update);
+        return xx.digest();
+    }
+
+    /**
+     * Object ids of the given working files, reusing .gitlet/filecache for unchanged files.
+     * @param filenames files in the working directory
+     * @return filename -> object id
+     */
+    static HashMap<String, String> objectIds(List<String> filenames) {
+        return objectIds(filenames, true);
+    }
+
+    /**
+     * @param save false to leave .gitlet/filecache as it is, for commands that must not write.
+     */
+    static HashMap<String, String> objectIds(List<String> filenames, boolean save) {
+        return objectIds(filenames, readCache(), null, save);
+    }
+
+    /**
+     * Object ids of the working files, when a monitor reported every path changed since
+     * the last call: the cached files that did not change are not even looked at.
+     * @param changed paths changed since the cache was written
+     * @param include files to report, the others are left out of the result and the cache.
+     * @param save false to leave .gitlet/filecache as it is, for commands that must not write.
+     * @return filename -> object id
+     */
+    static HashMap<String, String> objectIdsOfChanged(Set<String> changed, Predicate<String> include, boolean save) {
+        HashMap<String, String> cache = readCache();
+        // A changed directory, e.g. one deleted or renamed as a whole, stands for every file under it.
+        Set<String> changedFiles = new HashSet<>(changed);
+        for (String filename : cache.keySet()) {
+            for (Path dir = Paths.get(filename).getParent(); dir != null; dir = dir.getParent()) {
+                if (changed.contains(dir.toString().replace(File.separatorChar, '/'))) changedFiles.add(filename);
+            }
+        }
+        TreeSet<String> filenames = new TreeSet<>(cache.keySet());
+        filenames.addAll(changedFiles);
+        filenames.removeIf(include.negate());
+        filenames.removeIf((filename) -> changedFiles.contains(filename) && !Repository.file("./" + filename).isFile());
+        return objectIds(filenames, cache, changedFiles, save);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static HashMap<String, String> readCache() {
+        if (!Repository.file(CACHE_FILE).isFile()) return new HashMap<>();
+        return Utils.readObject(Repository.file(CACHE_FILE), HashMap.class);
+    }
+
+    /**
+     * @param changed if not null, files outside it are known to match their cache entry.
+     * @param save write the new cache if it differs from OLDCACHE
+     */
+    private static HashMap<String, String> objectIds(Collection<String> filenames,
+                                                     HashMap<String, String> oldCache, Set<String> changed, boolean save) {
+        // filename -> "size xxh64 objectId", only files that still exist are kept.
+        HashMap<String, String> newCache = new HashMap<>();
+        HashMap<String, String> fileMap = new HashMap<>();
+        for (String filename : filenames) {
+            String cached = oldCache.get(filename);
+            if (changed != null && cached != null && !changed.contains(filename)) {
+                fileMap.put(filename, cached.substring(cached.lastIndexOf(' ') + 1));
+                newCache.put(filename, cached);
+                continue;
+            }
+            File file = Repository.file("./" + filename);
+            String stamp = file.length() + " " + Long.toHexString(xxHash64(file)) + " ";
+            String objectId;
+            if (cached != null && cached.startsWith(stamp)) {
+                objectId = cached.substring(stamp.length());
+            } else {
+                objectId = objectId(file);
+            }
+            fileMap.put(filename, objectId);
+            newCache.put(filename, stamp + objectId);
+        }
+        if (save && !newCache.equals(oldCache) && Gitlet.isInited()) Utils.writeObject(Repository.file(CACHE_FILE), newCache);
+        return fileMap;
+    }
+
+    /**
+     * Hand the whole content of the file to SINK, one buffer at a time.
+     * @param file a normal file
+     */
+    static void forEachBuffer(File file, Consumer<ByteBuffer> sink) {
+        long size = file.length();
+        forEachBuffer(file, sink, MODE.equals("mmap") || (MODE.equals("auto") && size >= MMAP_MIN_SIZE));
+    }
+
+    private static void forEachBuffer(File file, Consumer<ByteBuffer> sink, boolean useMmap) {
+        if (!file.isFile()) {
+            throw new IllegalArgumentException("must be a normal file");
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (useMmap) {
+                for (long pos = 0; pos < size; pos += MMAP_WINDOW) {
+                    long windowSize = Math.min(MMAP_WINDOW, size - pos);
+                    MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, pos, windowSize);
+                    sink.accept(window);
+                }
+            } else {
+                ByteBuffer buf = READ_BUFFER.get();
+                buf.clear();
+                while (channel.read(buf) >= 0) {
+                    buf.flip();
+                    sink.accept(buf);
+                    buf.clear();
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * A rough benchmark to pick the mode and compare the hashes on a machine:
+     *      java gitlet.FileHash FILE...
+     * hashes each FILE with every algorithm in both modes and prints the best
+     * throughput of a few rounds, so JIT warm-up does not skew the comparison.
+     */
+    public static void main(String... files) {
+        final int rounds = 5;
+        for (String fileName : files) {
+            File file = new File(fileName);
+            for (String hash : new String[]{"sha1", "sha256", "xxh64"}) {
+                for (boolean mmap : new boolean[]{true, false}) {
+                    long best = Long.MAX_VALUE;
+                    for (int i = 0; i < rounds; i++) {
+                        long start = System.nanoTime();
+                        if (hash.equals("xxh64")) {
+                            XxHash64 xx = new XxHash64();
+                            forEachBuffer(file, xx::update, mmap);
+                            xx.digest();
+                        } else {
+                            MessageDigest md = HashAlgorithm.fromFormatName(hash).digest();
+                            forEachBuffer(file, md::update, mmap);
+                            md.digest();
+                        }
+                        best = Math.min(best, System.nanoTime() - start);
+                    }
+                    System.out.printf("%s %s %s: %.1f MB/s%n", fileName, hash, mmap ? "mmap" : "read",
+                            file.length() * 1e3 / best);
+                }
+            }
+        }
+    }
+}
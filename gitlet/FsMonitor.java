@@ -0,0 +1,205 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Set;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Filesystem monitor, so that commands do not have to list and read the whole working directory.
+ *
+ * "gitlet monitor" runs a WatchService over the working directory and appends each changed
+ * path, one per line, to .gitlet/fsmonitor, after a header naming this run of the monitor.
+ * An overflow event is written as "*". While it runs, the monitor holds a lock on
+ * .gitlet/fsmonitor.lock, which is how commands know its journal is complete.
+ *
+ * .gitlet/fsmonitor-token remembers "[run] [journal offset]" as of the last time the file
+ * cache was brought up to date. The next command only looks at paths journaled since then.
+ * It falls back to a full scan when no monitor runs, the monitor restarted, an
+ * overflow was journaled, or .gitletignore changed, which may hide or reveal any path.
+ */
+public class FsMonitor {
+    public static final File JOURNAL_FILE = new File("./.gitlet/fsmonitor");
+    public static final File LOCK_FILE = new File("./.gitlet/fsmonitor.lock");
+    public static final File TOKEN_FILE = new File("./.gitlet/fsmonitor-token");
+    private static final String HEADER = "gitlet-fsmonitor ";
+    private static final String OVERFLOW_LINE = "*";
+
+    /** Paths changed since the saved token, and the token to save once they are handled. */
+    static class Changes {
+        /** null if the whole working directory must be scanned. */
+        final Set<String> paths;
+        /** null if no monitor runs. */
+        final String token;
+
+        Changes(Set<String> paths, String token) {
+            this.paths = paths;
+            this.token = token;
+        }
+
+        /** Record that the working files are known up to this point of the journal. */
+        void save() {
+            if (token != null && Gitlet.isInited()) Utils.writeContents(Repository.file(TOKEN_FILE), token);
+        }
+    }
+
+    /**
+     * Read the journal from the saved token to its end.
+     */
+    static Changes changes() {
+        if (!isRunning()) return new Changes(null, null);
+        byte[] journal = Utils.readContents(Repository.file(JOURNAL_FILE));
+        int headerEnd = indexOf(journal, 0);
+        if (headerEnd < 0) return new Changes(null, null);
+        String run = new String(journal, 0, headerEnd, StandardCharsets.UTF_8);
+        // Lines still being written are left for the next command.
+        int end = journal.length;
+        while (end > headerEnd + 1 && journal[end - 1] != '\n') end--;
+        String newToken = run + " " + end;
+
+        File tokenFile = Repository.file(TOKEN_FILE);
+        String[] saved = tokenFile.isFile() ? Utils.readContentsAsString(tokenFile).split(" ") : new String[0];
+        if (saved.length != 3 || !(saved[0] + " " + saved[1]).equals(run)) return new Changes(null, newToken);
+        int start = Integer.parseInt(saved[2]);
+        if (start > end) return new Changes(null, newToken);
+
+        Set<String> paths = new HashSet<>();
+        for (String line : new String(journal, start, end - start, StandardCharsets.UTF_8).split("\n")) {
+            if (line.equals(OVERFLOW_LINE) || line.equals(WorkTree.IGNORE_FILE.getName())) {
+                return new Changes(null, newToken);
+            }
+            if (!line.isEmpty()) paths.add(line);
+        }
+        return new Changes(paths, newToken);
+    }
+
+    /** Forget the token, e.g. when the files of interest change, so the next command scans everything. */
+    static void invalidate() {
+        Repository.file(TOKEN_FILE).delete();
+    }
+
+    private static int indexOf(byte[] bytes, int from) {
+        for (int i = from; i < bytes.length; i++) {
+            if (bytes[i] == '\n') return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if a monitor holds the lock of the current repository.
+     */
+    static boolean isRunning() {
+        File lockFile = Repository.file(LOCK_FILE);
+        if (!lockFile.isFile() || !Repository.file(JOURNAL_FILE).isFile()) return false;
+        try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock();
+            if (lock == null) return true;
+            lock.release();
+            return false;
+        } catch (OverlappingFileLockException e) {
+            // The monitor runs in this process, as a thread.
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Watch the working directory of the current repository, journaling every change,
+     * until the thread is interrupted or the process is killed.
+     */
+    static void run() {
+        Path root = Repository.file("./").toPath().toAbsolutePath().normalize();
+        try (FileChannel lockChannel = FileChannel.open(Repository.file(LOCK_FILE).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock;
+            try {
+                lock = lockChannel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null;
+            }
+            if (lock == null) Gitlet.printAndExit("A monitor is already running.");
+            try (WatchService watcher = FileSystems.getDefault().newWatchService();
+                 OutputStream journal = Files.newOutputStream(Repository.file(JOURNAL_FILE).toPath(),
+                         StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                StringBuilder lines = new StringBuilder();
+                watchTree(watcher, root, root, null);
+                // The run is named by its start time, so a restarted monitor never matches an old token.
+                journal.write((HEADER + System.currentTimeMillis() + "\n").getBytes(StandardCharsets.UTF_8));
+                while (true) {
+                    WatchKey key = watcher.take();
+                    Path dir = (Path) key.watchable();
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == OVERFLOW) {
+                            lines.append(OVERFLOW_LINE).append('\n');
+                            continue;
+                        }
+                        Path changed = dir.resolve((Path) event.context());
+                        String path = relative(root, changed);
+                        if (path.equals(".gitlet") || path.startsWith(".gitlet/")) continue;
+                        lines.append(path).append('\n');
+                        // A new directory is watched too, and its existing content counts as changed.
+                        if (event.kind() == ENTRY_CREATE && Files.isDirectory(changed)) {
+                            watchTree(watcher, root, changed, lines);
+                        }
+                    }
+                    key.reset();
+                    if (lines.length() > 0) {
+                        journal.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+                        journal.flush();
+                        lines.setLength(0);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            throw Utils.error(e.getMessage());
+        }
+    }
+
+    /**
+     * Watch DIR and every directory under it except .gitlet.
+     * @param lines if not null, the files found are appended as changed paths.
+     */
+    private static void watchTree(WatchService watcher, Path root, Path dir, StringBuilder lines) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) throws IOException {
+                if (relative(root, path).equals(".gitlet")) return FileVisitResult.SKIP_SUBTREE;
+                path.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+                if (lines != null) lines.append(relative(root, path)).append('\n');
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static String relative(Path root, Path path) {
+        return root.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+}
@@ -0,0 +1,195 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Integrity and connectivity check of the object store.
+ *
+ * Every object is re-hashed on a pool of worker threads and compared with its name:
+ * plain objects by their bytes, chunk manifests by the content they reassemble to.
+ * Commits are decoded from the same read. From the decoded commits and the refs:
+ *  - every parent of a commit must be a commit in the store, and every blob and chunk
+ *    referenced must exist; in a partial clone absent blobs are promised, not missing;
+ *  - an object that no ref, no other object, no unexpired reflog entry and not the index
+ *    points to is dangling.
+ * Progress goes to stderr while objects are hashed; problems go to stdout, sorted:
+ *  "corrupt [id]", "missing commit|blob|chunk [id] (from [id or ref])",
+ *  "dangling commit|blob [id]", "garbage [file name]".
+ */
+public class Fsck {
+    /** Objects up to this size, and commits, are read whole so a commit is decoded from the same read. */
+    private static final long SMALL_OBJECT = 64 << 10;
+    private static final long PROGRESS_INTERVAL_MS = 1000;
+
+    /** What hashing one object found. */
+    private static class Checked {
+        final String id;
+        final boolean intact;
+        /** Non-null if the object is a commit. */
+        final Commit commit;
+        /** Non-null if the object is a chunk manifest. */
+        final List<String> chunks;
+
+        Checked(String id, boolean intact, Commit commit, List<String> chunks) {
+            this.id = id;
+            this.intact = intact;
+            this.commit = commit;
+            this.chunks = chunks;
+        }
+    }
+
+    /**
+     * Check the current repository and print what is wrong.
+     * @param threads size of the hashing pool
+     * @return number of problems found
+     */
+    static int run(int threads) {
+        File objectsDir = Repository.file(Gitlet.OBJECT_PATH);
+        HashAlgorithm algorithm = HashAlgorithm.current();
+        TreeSet<String> problems = new TreeSet<>();
+        List<String> ids = new ArrayList<>();
+        for (String name : Utils.plainFilenamesIn(objectsDir)) {
+            if (name.length() == algorithm.hexLength() && name.matches("[0-9a-f]+")) ids.add(name);
+            else problems.add("garbage " + name);
+        }
+
+        Map<String, Checked> checked = hashAll(objectsDir, ids, algorithm, threads);
+        Set<String> referenced = new HashSet<>();
+        boolean partial = Promisor.isPartial();
+        for (Checked object : checked.values()) {
+            if (!object.intact) problems.add("corrupt " + object.id);
+            if (object.chunks != null) {
+                for (String chunk : object.chunks) {
+                    referenced.add(chunk);
+                    if (!checked.containsKey(chunk) && !partial) problems.add("missing chunk " + chunk + " (from " + object.id + ")");
+                }
+            }
+            if (object.commit == null) continue;
+            for (String parent : new String[]{object.commit.getParentSHA1(), object.commit.getParent2SHA1()}) {
+                if (parent == null) continue;
+                referenced.add(parent);
+                Checked parentObject = checked.get(parent);
+                if (parentObject == null || parentObject.commit == null) {
+                    problems.add("missing commit " + parent + " (from " + object.id + ")");
+                }
+            }
+            for (String blob : object.commit.getBlobsMap().values()) {
+                referenced.add(blob);
+                if (!checked.containsKey(blob) && !partial) problems.add("missing blob " + blob + " (from " + object.id + ")");
+            }
+        }
+        for (Map.Entry<String, String> ref : roots().entrySet()) {
+            referenced.add(ref.getValue());
+            Checked target = checked.get(ref.getValue());
+            if (target == null || target.commit == null) {
+                problems.add("missing commit " + ref.getValue() + " (from " + ref.getKey() + ")");
+            }
+        }
+        // Staged blobs are not committed yet, and commits in the reflog may still be wanted.
+        referenced.addAll(Gitlet.getIndexMap().values());
+        referenced.addAll(Reflog.roots());
+        for (Checked object : checked.values()) {
+            if (referenced.contains(object.id)) continue;
+            problems.add("dangling " + (object.commit != null ? "commit " : "blob ") + object.id);
+        }
+        for (String problem : problems) System.out.println(problem);
+        return problems.size();
+    }
+
+    /**
+     * @return ref name -> commit id, for every branch and HEAD.
+     */
+    private static Map<String, String> roots() {
+        Map<String, String> roots = new HashMap<>();
+        for (String branch : Gitlet.getBranchList()) {
+            String id = Gitlet.readBranchHash(branch);
+            if (id != null) roots.put(branch, id.trim());
+        }
+        String head = Gitlet.getHeadSHA1();
+        if (head != null) roots.put("HEAD", head);
+        return roots;
+    }
+
+    /** Hash every object on a pool of THREADS workers, reporting progress to stderr. */
+    private static Map<String, Checked> hashAll(File objectsDir, List<String> ids, HashAlgorithm algorithm, int threads) {
+        Map<String, Checked> checked = new ConcurrentHashMap<>();
+        AtomicInteger done = new AtomicInteger();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.submit(() -> ids.parallelStream().forEach((id) -> {
+                checked.put(id, check(objectsDir, id, algorithm));
+                done.incrementAndGet();
+            }));
+            pool.shutdown();
+            long total = ids.size();
+            while (!pool.awaitTermination(PROGRESS_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                System.err.printf("Checking objects: %d%% (%d/%d)%n", 100 * done.get() / Math.max(1, total), done.get(), total);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Utils.error("fsck interrupted");
+        }
+        return checked;
+    }
+
+    private static Checked check(File objectsDir, String id, HashAlgorithm algorithm) {
+        File file = new File(objectsDir, id);
+        try {
+            if (Chunker.isManifest(file)) {
+                List<String> chunks = Chunker.chunkIds(file);
+                MessageDigest md = algorithm.digest();
+                for (String chunk : chunks) {
+                    File chunkFile = new File(objectsDir, chunk);
+                    // A missing chunk is reported on its own; the content cannot be checked.
+                    if (!chunkFile.isFile()) return new Checked(id, true, null, chunks);
+                    FileHash.forEachBuffer(chunkFile, md::update);
+                }
+                return new Checked(id, id.equals(HashAlgorithm.toHex(md.digest())), null, chunks);
+            }
+            if (file.length() > SMALL_OBJECT && !startsSerialized(file)) {
+                return new Checked(id, id.equals(algorithm.hashFile(file)), null, null);
+            }
+            byte[] content = Files.readAllBytes(file.toPath());
+            boolean intact = id.equals(algorithm.hash(content));
+            return new Checked(id, intact, decodeCommit(content), null);
+        } catch (IOException | IllegalArgumentException | GitletException e) {
+            return new Checked(id, false, null, null);
+        }
+    }
+
+    private static boolean startsSerialized(File file) throws IOException {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            return Commit.isSerialized(in.readNBytes(2));
+        }
+    }
+
+    /**
+     * @return the commit serialized in CONTENT, or null if it holds something else.
+     */
+    private static Commit decodeCommit(byte[] content) {
+        if (!Commit.isSerialized(content)) return null;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(content))) {
+            Object object = in.readObject();
+            return (object instanceof Commit) ? (Commit) object : null;
+        } catch (IOException | ClassNotFoundException e) {
+            return null;
+        }
+    }
+}
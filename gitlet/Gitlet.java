@@ -2,15 +2,16 @@ package gitlet;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
-
-import static java.lang.System.exit;
+import java.util.TreeSet;
+import java.util.function.Predicate;
 
 public class Gitlet {
-    public static final int SHA1_LENGTH = 40;
     public static final String GITLET_PATH = "./.gitlet";
     public static final String OBJECT_PATH = "./.gitlet/objects/";
     public static final String BRANCHES_PATH = "./.gitlet/refs/";
@@ -18,40 +19,88 @@ public class Gitlet {
     public static final File INDEX_FILE = new File("./.gitlet/index");
 
     static boolean isInited() {
-        File f = new File(GITLET_PATH);
+        File f = Repository.file(GITLET_PATH);
         return (f.exists() && f.isDirectory());
     }
 
     static void setupDirectory() {
         // If there is already a .gitlet, display the err message and abort
         if (isInited()) {
-            Utils.message("A Gitlet version-control system already exists in the current directory.");
-            exit(0);
+            Gitlet.printAndExit("A Gitlet version-control system already exists in the current directory.");
         }
 
         // Create .gitlet, Dir: logs, objects, refs
-        (new File(GITLET_PATH)).mkdir();
-        (new File("./.gitlet/logs")).mkdir();
-        (new File("./.gitlet/objects")).mkdir();
-        (new File("./.gitlet/refs")).mkdir();
+        (Repository.file(GITLET_PATH)).mkdir();
+        (Repository.file("./.gitlet/logs")).mkdir();
+        (Repository.file("./.gitlet/objects")).mkdir();
+        (Repository.file("./.gitlet/refs")).mkdir();
 
         // File: HEAD, INDEX, refs/master
         try {
-            HEAD_FILE.createNewFile();
-            INDEX_FILE.createNewFile();
-            (new File(BRANCHES_PATH + "master")).createNewFile();
+            Repository.file(HEAD_FILE).createNewFile();
+            Repository.file(INDEX_FILE).createNewFile();
+            (Repository.file(BRANCHES_PATH + "master")).createNewFile();
         } catch(IOException e) {
-            Utils.message(e.getMessage());
-            exit(0);
+            throw Utils.error(e.getMessage());
+        }
+    }
+
+    /*
+        Batch mode: HEAD, the index and the head commit stay in memory between commands.
+        HEAD and the index are written back by flush(), at each commit and at the end of the batch.
+        The caches are fields of the current Repository.
+     */
+
+    /**
+     * Turn batch mode on or off; either way, pending changes are written and the caches dropped.
+     */
+    static void setBatchMode(boolean on) {
+        Repository repo = Repository.current();
+        try {
+            flush();
+        } finally {
+            // Even if the flush failed, no command after this one sees the stale caches.
+            repo.batchMode = on;
+            repo.headDirty = false;
+            repo.indexDirty = false;
+            repo.cachedHEAD = null;
+            repo.cachedIndex = null;
+            repo.cachedHeadCommit = null;
+            repo.cachedHeadCommitId = null;
         }
     }
 
+    /**
+     * Write HEAD and the index if batch mode changed them in memory.
+     */
+    static void flush() {
+        Repository repo = Repository.current();
+        if (repo.headDirty) Utils.writeContents(Repository.file(HEAD_FILE), repo.cachedHEAD);
+        if (repo.indexDirty) IndexFile.writeAll(repo.cachedIndex);
+        repo.headDirty = false;
+        repo.indexDirty = false;
+    }
+
     /*
         Head related functions
      */
 
+    private static String readHEAD() {
+        Repository repo = Repository.current();
+        if (!repo.batchMode) return Utils.readContentsAsString(Repository.file(HEAD_FILE));
+        if (repo.cachedHEAD == null) repo.cachedHEAD = Utils.readContentsAsString(Repository.file(HEAD_FILE));
+        return repo.cachedHEAD;
+    }
+
     static void writeHEAD(String content) {
-        Utils.writeContents(HEAD_FILE, content);
+        Repository repo = Repository.current();
+        Reflog.record(Reflog.HEAD_LOG, resolveHEAD(readHEAD()), resolveHEAD(content));
+        if (!repo.batchMode) {
+            Utils.writeContents(Repository.file(HEAD_FILE), content);
+            return;
+        }
+        repo.cachedHEAD = content;
+        repo.headDirty = true;
     }
 
     /**
@@ -59,24 +108,32 @@ public class Gitlet {
      * @param commitSHA1 the SHA1 for the current commit
      */
     static void writeHeadSHA1(String commitSHA1) {
-        String HEADContent = Utils.readContentsAsString(HEAD_FILE);
+        String HEADContent = readHEAD();
         // HEADContent is either 40-bit SHA1 or "/branch-name"
         if (HEADContent.charAt(0) == '/') {
-            String branchName = HEADContent.substring(1);
-            File branchFile = new File(BRANCHES_PATH + branchName);
-            Utils.writeContents(branchFile, commitSHA1);
+            writeBranch(HEADContent.substring(1), commitSHA1);
         } else {
             // TODO: How to commit to a detached head???
         }
 
     }
 
+    /**
+     * @param content content of HEAD
+     * @return the commit id CONTENT stands for, null if it names an unborn branch.
+     */
+    private static String resolveHEAD(String content) {
+        if (content.isEmpty() || content.charAt(0) != '/') return content;
+        String id = readBranchHash(content.substring(1));
+        return (id == null || id.isEmpty()) ? null : id;
+    }
+
     /**
      * Get the reference name of the head.
      * @return The branch name the head is pointing to, if it is detached, return null/
      */
     static String getHeadRef() {
-        String headContent = Utils.readContentsAsString(HEAD_FILE);
+        String headContent = readHEAD();
         // HEADContent is either 40-bit SHA1 or "/branch-name"
         if (headContent.charAt(0) == '/') {
             String branchName = headContent.substring(1);
@@ -91,12 +148,11 @@ public class Gitlet {
      * @return SHA1 of commit object the head is pointing to.
      */
     static String getHeadSHA1() {
-        String HEADContent = Utils.readContentsAsString(HEAD_FILE);
+        String HEADContent = readHEAD();
         // HEADContent is either 40-bit SHA1 or "/branch-name"
         if (HEADContent.charAt(0) == '/') {
             String branchName = HEADContent.substring(1);
-            File branchFile = new File(BRANCHES_PATH + branchName);
-            return Utils.readContentsAsString(branchFile);
+            return readBranchHash(branchName);
         } else {
             return HEADContent;
         }
@@ -104,38 +160,149 @@ public class Gitlet {
 
     static Commit getHeadCommit() {
         String HeadSHA1 = getHeadSHA1();
-        return Commit.readObject(HeadSHA1);
+        Repository repo = Repository.current();
+        if (!repo.batchMode) return Commit.readObject(HeadSHA1);
+        // Commits never change, so the cached one is valid as long as HEAD resolves to it.
+        if (repo.cachedHeadCommit == null || !HeadSHA1.equals(repo.cachedHeadCommitId)) {
+            repo.cachedHeadCommit = Commit.readObject(HeadSHA1);
+            repo.cachedHeadCommitId = HeadSHA1;
+        }
+        return repo.cachedHeadCommit;
     }
 
     /* Index related functions */
 
+    /**
+     * Replace the whole index, see IndexFile.
+     */
     static void setIndexMap(HashMap<String, String> blobsMap) {
-        Utils.writeObject(INDEX_FILE, blobsMap);
+        Repository repo = Repository.current();
+        if (!repo.batchMode) {
+            IndexFile.writeAll(blobsMap);
+            return;
+        }
+        repo.cachedIndex = new HashMap<>(blobsMap);
+        repo.indexDirty = true;
     }
 
+    /**
+     * @return a copy of the index the caller may modify.
+     */
     static HashMap<String, String> getIndexMap() {
-        return Utils.readObject(INDEX_FILE, (new HashMap<String, String>()).getClass());
+        Repository repo = Repository.current();
+        if (!repo.batchMode) return IndexFile.readAll();
+        if (repo.cachedIndex == null) repo.cachedIndex = IndexFile.readAll();
+        return new HashMap<>(repo.cachedIndex);
+    }
+
+    /**
+     * Look up one file in the index without reading all of it.
+     * @return the staged blob id, or null if the file is not in the index.
+     */
+    static String getIndexEntry(String filename) {
+        Repository repo = Repository.current();
+        if (repo.batchMode && repo.cachedIndex != null) return repo.cachedIndex.get(filename);
+        return IndexFile.lookup(filename);
+    }
+
+    /**
+     * Stage or unstage one file: a journal append instead of rewriting the index.
+     * @param blobHash the blob id to stage, null to remove the file from the index.
+     */
+    static void setIndexEntry(String filename, String blobHash) {
+        HashMap<String, String> changes = new HashMap<>();
+        changes.put(filename, blobHash);
+        setIndexEntries(changes);
+    }
+
+    /**
+     * Stage or unstage many files with a single write of the index.
+     * @param changes filename -> blob id to stage, or null to remove the file from the index.
+     */
+    static void setIndexEntries(Map<String, String> changes) {
+        Repository repo = Repository.current();
+        if (!repo.batchMode) {
+            IndexFile.update(changes);
+            return;
+        }
+        if (repo.cachedIndex == null) repo.cachedIndex = IndexFile.readAll();
+        changes.forEach((filename, blobHash) -> {
+            if (blobHash == null) repo.cachedIndex.remove(filename);
+            else repo.cachedIndex.put(filename, blobHash);
+        });
+        repo.indexDirty = true;
     }
 
     /* Branch realated functions */
 
+    /**
+     * Point a branch at a commit, as a loose ref.
+     * @param branchName name of the branch, "remote/branch" for remote-tracking branches.
+     * @param sha1 id of the commit
+     */
     static void writeBranch(String branchName, String sha1) {
-        File branchFront = new File(BRANCHES_PATH + branchName);
+        String oldSha1 = readBranchHash(branchName);
+        File branchFront = Repository.file(BRANCHES_PATH + branchName);
+        branchFront.getParentFile().mkdirs();
         Utils.writeContents(branchFront, sha1);
+        Reflog.record(branchName, oldSha1, sha1);
+        // Moving the current branch moves HEAD too.
+        if (readHEAD().equals("/" + branchName)) Reflog.record(Reflog.HEAD_LOG, oldSha1, sha1);
     }
 
+    /**
+     * Read the front of a branch. A loose ref in BRANCHES_PATH wins over packed-refs.
+     * @param branchName name of the branch
+     * @return SHA1 of the branch front, or null if no such branch.
+     */
     static String readBranchHash(String branchName) {
-        File branchFile = new File(BRANCHES_PATH + branchName);
-        return Utils.readContentsAsString(branchFile);
+        File branchFile = Repository.file(BRANCHES_PATH + branchName);
+        if (branchFile.isFile()) return Utils.readContentsAsString(branchFile);
+        return PackedRefs.lookup(branchName);
     }
 
+    static boolean branchExists(String branchName) {
+        return readBranchHash(branchName) != null;
+    }
+
+    /**
+     * Delete both the loose and the packed version of a branch.
+     * @param branchName name of the branch, must not be the current one.
+     */
+    static void deleteBranch(String branchName) {
+        Repository.file(BRANCHES_PATH + branchName).delete();
+        PackedRefs.remove(branchName);
+    }
+
+    /**
+     * @return sorted names of all branches, loose and packed.
+     */
     static List<String> getBranchList() {
-        return Utils.plainFilenamesIn(BRANCHES_PATH);
+        TreeSet<String> branches = new TreeSet<>(getLooseBranchList());
+        branches.addAll(PackedRefs.names());
+        return new ArrayList<>(branches);
+    }
+
+    /**
+     * @return names of the branches stored as files under BRANCHES_PATH,
+     *          including remote-tracking ones in the form "remote/branch".
+     */
+    static List<String> getLooseBranchList() {
+        List<String> branches = new ArrayList<>(Utils.plainFilenamesIn(Repository.file(BRANCHES_PATH)));
+        File[] subDirs = Repository.file(BRANCHES_PATH).listFiles(File::isDirectory);
+        if (subDirs != null) {
+            for (File subDir : subDirs) {
+                for (String name : Utils.plainFilenamesIn(subDir)) {
+                    branches.add(subDir.getName() + "/" + name);
+                }
+            }
+        }
+        return branches;
     }
 
     static List<String> getAllCommitsSHA1() {
         List<String> allCommitsSHA1List = new LinkedList<>();
-        List<String> objsSHA1 = Utils.plainFilenamesIn(OBJECT_PATH);
+        List<String> objsSHA1 = Utils.plainFilenamesIn(Repository.file(OBJECT_PATH));
         for (String sha1 : objsSHA1) {
             try {
                 if (Commit.readObject(sha1) != null) {
@@ -181,12 +348,31 @@ public class Gitlet {
         Working tree related functions.
      */
 
+    /**
+     * With a running FsMonitor only the files it reported as changed are examined,
+     * otherwise the whole working directory is listed.
+     * @return filename -> object id of the working files, only those in the sparse-checkout cone.
+     */
     public static HashMap<String, String> getFileMap() {
-        List<String> filesList = Utils.plainFilenamesIn("./");
-        HashMap<String, String> fileMap = new HashMap<String, String>();
-        for (String filename : filesList) {
-            fileMap.put(filename, Blob.getFileHash(filename));
+        return scanFileMap(true);
+    }
+
+    /**
+     * @param save false to leave the file-hash cache and the monitor token as they are,
+     *             for commands that must not write, e.g. merge --dry-run.
+     */
+    static HashMap<String, String> scanFileMap(boolean save) {
+        Predicate<String> cone = SparseCheckout.cone();
+        FsMonitor.Changes changes = FsMonitor.changes();
+        HashMap<String, String> fileMap;
+        if (changes.paths == null) {
+            List<String> filesList = WorkTree.list();
+            filesList.removeIf(cone.negate());
+            fileMap = FileHash.objectIds(filesList, save);
+        } else {
+            fileMap = FileHash.objectIdsOfChanged(changes.paths, cone.and(WorkTree.ignore().negate()), save);
         }
+        if (save) changes.save();
         return fileMap;
     }
 
@@ -204,8 +390,10 @@ public class Gitlet {
 
     /* Logging functions */
 
+    /**
+     * End the current command with MSG. Main prints it; in batch mode the next command runs.
+     */
     public static void printAndExit(String msg) {
-        Utils.message(msg);
-        System.exit(0);
+        throw new GitletException(msg);
     }
 }
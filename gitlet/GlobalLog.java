@@ -0,0 +1,115 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.stream.IntStream;
+
+/**
+ * global-log over the whole object store, newest commit first.
+ *
+ * The object ids are split into one run per worker. Each worker reads its objects once,
+ * skipping blobs by their first two bytes (see Commit.isSerialized), decodes the commits, drops those outside [since, until] before
+ * rendering anything, renders the rest and sorts its run by time. A k-way merge holding
+ * one entry per run then prints the runs in order as it goes, so the output is never
+ * gathered in one piece.
+ */
+public class GlobalLog {
+    /** A rendered commit of a run. */
+    private static class Entry {
+        final String id;
+        final long time;
+        final String text;
+
+        Entry(String id, long time, String text) {
+            this.id = id;
+            this.time = time;
+            this.text = text;
+        }
+    }
+
+    /** Newest first; commits made in the same millisecond by id, so the order is stable. */
+    private static final Comparator<Entry> ORDER =
+            Comparator.comparingLong((Entry e) -> -e.time).thenComparing((Entry e) -> e.id);
+
+    /**
+     * Print every commit in the store made in [since, until].
+     * @param since earliest commit time, null for no bound
+     * @param until latest commit time, null for no bound
+     */
+    static void print(Date since, Date until) {
+        File objectsDir = Repository.file(Gitlet.OBJECT_PATH);
+        List<String> ids = Utils.plainFilenamesIn(objectsDir);
+        int workers = Math.max(1, Math.min(ids.size(), Runtime.getRuntime().availableProcessors()));
+        List<List<Entry>> runs = IntStream.range(0, workers).parallel()
+                .mapToObj((w) -> run(objectsDir, ids.subList(w * ids.size() / workers, (w + 1) * ids.size() / workers),
+                        since, until))
+                .toList();
+        merge(runs);
+    }
+
+    private static List<Entry> run(File objectsDir, List<String> ids, Date since, Date until) {
+        List<Entry> run = new ArrayList<>();
+        for (String id : ids) {
+            Commit commit = readCommit(new File(objectsDir, id));
+            if (commit == null) continue;
+            Date time = commit.getTime();
+            if ((since != null && time.before(since)) || (until != null && time.after(until))) continue;
+            run.add(new Entry(id, time.getTime(), CmdUtils.formatCommit(id, commit)));
+        }
+        run.sort(ORDER);
+        return run;
+    }
+
+    /**
+     * @return the commit stored in FILE, or null if it holds something else.
+     */
+    private static Commit readCommit(File file) {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            byte[] magic = in.readNBytes(2);
+            if (!Commit.isSerialized(magic)) return null;
+            ObjectInputStream objectIn = new ObjectInputStream(
+                    new SequenceInputStream(new ByteArrayInputStream(magic), in));
+            Object object = objectIn.readObject();
+            return (object instanceof Commit) ? (Commit) object : null;
+        } catch (IOException | ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    /** The next entry of a run, in the heap of the merge. */
+    private static class Head {
+        final Entry entry;
+        final Iterator<Entry> rest;
+
+        Head(Entry entry, Iterator<Entry> rest) {
+            this.entry = entry;
+            this.rest = rest;
+        }
+    }
+
+    /** Print sorted runs in order, holding the head of each run in a heap. */
+    private static void merge(List<List<Entry>> runs) {
+        PriorityQueue<Head> heap = new PriorityQueue<>(Math.max(1, runs.size()),
+                (a, b) -> ORDER.compare(a.entry, b.entry));
+        for (List<Entry> run : runs) {
+            Iterator<Entry> it = run.iterator();
+            if (it.hasNext()) heap.add(new Head(it.next(), it));
+        }
+        while (!heap.isEmpty()) {
+            Head head = heap.poll();
+            System.out.print(head.entry.text);
+            if (head.rest.hasNext()) heap.add(new Head(head.rest.next(), head.rest));
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Object id algorithms. A repository picks one at init time and records it in
+ * .gitlet/object-format; repositories without that file use SHA-1.
+ * Digests are created once per thread and reset between uses.
+ */
+public enum HashAlgorithm {
+    SHA1("sha1", "SHA-1"),
+    SHA256("sha256", "SHA-256");
+
+    public static final File FORMAT_FILE = new File("./.gitlet/object-format");
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    /** Large enough for the longest digest, reused by toHex on each thread. */
+    private static final ThreadLocal<char[]> HEX_BUFFER = ThreadLocal.withInitial(() -> new char[128]);
+
+    private final String formatName;
+    private final String jcaName;
+    private final ThreadLocal<MessageDigest> digest;
+
+    HashAlgorithm(String formatName, String jcaName) {
+        this.formatName = formatName;
+        this.jcaName = jcaName;
+        this.digest = ThreadLocal.withInitial(() -> {
+            try {
+                return MessageDigest.getInstance(jcaName);
+            } catch (NoSuchAlgorithmException excp) {
+                throw new IllegalArgumentException("System does not support " + jcaName);
+            }
+        });
+    }
+
+    public String getFormatName() { return this.formatName; }
+
+    /** Length of an id as a hexadecimal numeral. */
+    public int hexLength() { return digest().getDigestLength() * 2; }
+
+    /**
+     * @return this thread's digest, reset and ready for use.
+     */
+    MessageDigest digest() {
+        MessageDigest md = digest.get();
+        md.reset();
+        return md;
+    }
+
+    /**
+     * Hash the concatenation of VALS, which may be any mixture of byte arrays and Strings.
+     */
+    public String hash(Object... vals) {
+        MessageDigest md = digest();
+        for (Object val : vals) {
+            if (val instanceof byte[]) {
+                md.update((byte[]) val);
+            } else if (val instanceof String) {
+                md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+            } else {
+                throw new IllegalArgumentException("improper type to " + jcaName);
+            }
+        }
+        return toHex(md.digest());
+    }
+
+    /**
+     * Hash the raw bytes of a file in constant memory.
+     */
+    public String hashFile(File file) {
+        MessageDigest md = digest();
+        FileHash.forEachBuffer(file, md::update);
+        return toHex(md.digest());
+    }
+
+    /**
+     * Hex-encode into a per-thread buffer; the returned String is the only allocation.
+     * Input longer than a digest, e.g. a changed-path filter, gets a buffer of its own.
+     */
+    static String toHex(byte[] bytes) {
+        char[] hex = HEX_BUFFER.get();
+        if (hex.length < 2 * bytes.length) hex = new char[2 * bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(hex, 0, bytes.length * 2);
+    }
+
+    static HashAlgorithm fromFormatName(String name) {
+        for (HashAlgorithm algorithm : values()) {
+            if (algorithm.formatName.equals(name)) return algorithm;
+        }
+        return null;
+    }
+
+    /**
+     * The algorithm of the current repository, see Repository.
+     */
+    public static HashAlgorithm current() {
+        Repository repo = Repository.current();
+        // A class lock, see Repository.run.
+        synchronized (HashAlgorithm.class) {
+            if (repo.objectFormat == null) repo.objectFormat = ofRepository(Repository.file(Gitlet.GITLET_PATH));
+            return repo.objectFormat;
+        }
+    }
+
+    /**
+     * The algorithm recorded in any .gitlet directory, e.g. a remote's.
+     */
+    static HashAlgorithm ofRepository(File gitletDir) {
+        File formatFile = new File(gitletDir, FORMAT_FILE.getName());
+        if (!formatFile.isFile()) return SHA1;
+        HashAlgorithm recorded = fromFormatName(Utils.readContentsAsString(formatFile).trim());
+        if (recorded == null) throw Utils.error("Unknown object format.");
+        return recorded;
+    }
+
+    /**
+     * Record the algorithm of a new repository, only called by init and clone.
+     */
+    static void setCurrent(HashAlgorithm algorithm) {
+        if (algorithm != SHA1) Utils.writeContents(Repository.file(FORMAT_FILE), algorithm.formatName + "\n");
+        Repository repo = Repository.current();
+        synchronized (HashAlgorithm.class) {
+            repo.objectFormat = algorithm;
+        }
+    }
+}
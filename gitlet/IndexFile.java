@@ -0,0 +1,315 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The index (staging area) on disk, filename -> blob id, in two files.
+ *
+ * .gitlet/index is the sorted base, memory-mapped for lookups:
+ *  header:  int magic, int version, int id bytes, int entry count
+ *  offsets: int[entry count], the position of each record
+ *  records: [raw id bytes][short path length][path in UTF-8], sorted by path bytes
+ *
+ * .gitlet/index.journal is the split index: staging or unstaging one file appends one
+ * record ('+' [raw id bytes] or '-', then [short path length][path]) instead of rewriting
+ * the base. A lookup checks the journal, then binary searches the base, O(log N).
+ * The journal is folded into a new base once it holds more than
+ * max(MIN_JOURNAL, sqrt(N)) records, so its scans and the rewrites both stay cheap.
+ *
+ * An index written by older versions, a serialized HashMap, is still read.
+ */
+public class IndexFile {
+    public static final File JOURNAL_FILE = new File("./.gitlet/index.journal");
+    private static final int MAGIC = 0x474c4958;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int MIN_JOURNAL = 64;
+
+    /** A journal record; id is null for a removal. */
+    private static class Change {
+        final String path, id;
+
+        Change(String path, String id) {
+            this.path = path;
+            this.id = id;
+        }
+    }
+
+    private static File baseFile() {
+        return Repository.file(Gitlet.INDEX_FILE);
+    }
+
+    private static int idBytes() {
+        return HashAlgorithm.current().hexLength() / 2;
+    }
+
+    /**
+     * Map the base read-only.
+     * @return null if there is no base in the binary format.
+     */
+    private static MappedByteBuffer map() {
+        File file = baseFile();
+        if (!file.isFile() || file.length() < HEADER_SIZE) return null;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return buf.getInt(0) == MAGIC ? buf : null;
+        } catch (IOException e) {
+            throw Utils.error(e.getMessage());
+        }
+    }
+
+    /**
+     * @return the whole index, base and journal.
+     */
+    @SuppressWarnings("unchecked")
+    static HashMap<String, String> readAll() {
+        HashMap<String, String> index = new HashMap<>();
+        MappedByteBuffer buf = map();
+        if (buf != null) {
+            int idBytes = buf.getInt(8), count = buf.getInt(12);
+            for (int i = 0; i < count; i++) {
+                int pos = buf.getInt(HEADER_SIZE + 4 * i);
+                index.put(readPath(buf, pos + idBytes), readId(buf, pos, idBytes));
+            }
+        } else if (baseFile().isFile() && baseFile().length() > 0) {
+            index = Utils.readObject(baseFile(), HashMap.class);
+        }
+        for (Change change : readJournal().values()) {
+            if (change.id == null) index.remove(change.path);
+            else index.put(change.path, change.id);
+        }
+        return index;
+    }
+
+    /**
+     * Replace the whole index: write a new base under a temporary name, rename it, drop the journal.
+     */
+    static void writeAll(Map<String, String> index) {
+        int idBytes = idBytes();
+        byte[][] paths = new byte[index.size()][];
+        int n = 0;
+        for (String path : index.keySet()) paths[n++] = path.getBytes(StandardCharsets.UTF_8);
+        Arrays.sort(paths, Arrays::compareUnsigned);
+
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        int[] offsets = new int[paths.length];
+        int recordsStart = HEADER_SIZE + 4 * paths.length;
+        try {
+            DataOutputStream out = new DataOutputStream(records);
+            for (int i = 0; i < paths.length; i++) {
+                offsets[i] = recordsStart + out.size();
+                out.write(toBytes(index.get(new String(paths[i], StandardCharsets.UTF_8)), idBytes));
+                out.writeShort(paths[i].length);
+                out.write(paths[i]);
+            }
+        } catch (IOException e) {
+            throw Utils.error(e.getMessage());
+        }
+        ByteBuffer header = ByteBuffer.allocate(recordsStart);
+        header.putInt(MAGIC).putInt(VERSION).putInt(idBytes).putInt(paths.length);
+        for (int offset : offsets) header.putInt(offset);
+
+        File tmpFile = new File(baseFile().getPath() + ".lock");
+        try (OutputStream out = Files.newOutputStream(tmpFile.toPath())) {
+            out.write(header.array());
+            records.writeTo(out);
+        } catch (IOException e) {
+            throw Utils.error(e.getMessage());
+        }
+        try {
+            Files.move(tmpFile.toPath(), baseFile().toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw Utils.error(e.getMessage());
+        }
+        Repository.file(JOURNAL_FILE).delete();
+    }
+
+    /**
+     * @return the blob id staged for PATH, or null if it is not in the index.
+     */
+    static String lookup(String path) {
+        Change change = readJournal().get(path);
+        if (change != null) return change.id;
+        MappedByteBuffer buf = map();
+        if (buf == null) {
+            // An index in the old format, or none at all.
+            return readAll().get(path);
+        }
+        int idBytes = buf.getInt(8), count = buf.getInt(12);
+        byte[] key = path.getBytes(StandardCharsets.UTF_8);
+        int lo = 0, hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int pos = buf.getInt(HEADER_SIZE + 4 * mid);
+            int cmp = comparePath(buf, pos + idBytes, key);
+            if (cmp == 0) return readId(buf, pos, idBytes);
+            if (cmp < 0) lo = mid + 1;
+            else hi = mid - 1;
+        }
+        return null;
+    }
+
+    /** Stage PATH with blob ID. */
+    static void put(String path, String id) {
+        HashMap<String, String> changes = new HashMap<>();
+        changes.put(path, id);
+        update(changes);
+    }
+
+    /** Remove PATH from the index. */
+    static void remove(String path) {
+        HashMap<String, String> changes = new HashMap<>();
+        changes.put(path, null);
+        update(changes);
+    }
+
+    /**
+     * Apply many changes with one append to the journal, or one new base if that is smaller.
+     * @param changes path -> blob id to stage, or null to remove the path.
+     */
+    static void update(Map<String, String> changes) {
+        if (changes.isEmpty()) return;
+        MappedByteBuffer buf = map();
+        int count = (buf == null) ? 0 : buf.getInt(12);
+        int limit = Math.max(MIN_JOURNAL, (int) Math.sqrt(count));
+        // An old-format index is converted first; the journal only extends binary bases.
+        if (buf == null || changes.size() > limit) {
+            HashMap<String, String> index = readAll();
+            changes.forEach((path, id) -> {
+                if (id == null) index.remove(path);
+                else index.put(path, id);
+            });
+            writeAll(index);
+            return;
+        }
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(records);
+            for (Map.Entry<String, String> change : changes.entrySet()) {
+                byte[] pathBytes = change.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeByte(change.getValue() == null ? '-' : '+');
+                if (change.getValue() != null) out.write(toBytes(change.getValue(), idBytes()));
+                out.writeShort(pathBytes.length);
+                out.write(pathBytes);
+            }
+            truncateTornRecord();
+            Files.write(Repository.file(JOURNAL_FILE).toPath(), records.toByteArray(),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw Utils.error(e.getMessage());
+        }
+        if (readJournalRecords().size() > limit) writeAll(readAll());
+    }
+
+    /**
+     * @return path -> latest change.
+     */
+    private static LinkedHashMap<String, Change> readJournal() {
+        LinkedHashMap<String, Change> changes = new LinkedHashMap<>();
+        for (Change change : readJournalRecords()) changes.put(change.path, change);
+        return changes;
+    }
+
+    /**
+     * @return every record of the journal in order. A torn last record is ignored.
+     */
+    private static List<Change> readJournalRecords() {
+        List<Change> changes = new ArrayList<>();
+        File journal = Repository.file(JOURNAL_FILE);
+        if (journal.isFile()) parseJournal(ByteBuffer.wrap(Utils.readContents(journal)), changes);
+        return changes;
+    }
+
+    /**
+     * Parse the records of a journal into CHANGES.
+     * @return the length of the complete records, short of the length of BUF if the last one is torn.
+     */
+    private static int parseJournal(ByteBuffer buf, List<Change> changes) {
+        int idBytes = idBytes();
+        int end = 0;
+        while (buf.remaining() > 0) {
+            byte op = buf.get();
+            String id = null;
+            if (op == '+') {
+                if (buf.remaining() < idBytes) break;
+                id = readId(buf, buf.position(), idBytes);
+                buf.position(buf.position() + idBytes);
+            }
+            if (buf.remaining() < 2) break;
+            int length = buf.getShort() & 0xffff;
+            if (buf.remaining() < length) break;
+            byte[] path = new byte[length];
+            buf.get(path);
+            changes.add(new Change(new String(path, StandardCharsets.UTF_8), id));
+            end = buf.position();
+        }
+        return end;
+    }
+
+    /**
+     * Cut a torn last record off the journal, so that the next record appended
+     * is not read as its tail.
+     */
+    private static void truncateTornRecord() throws IOException {
+        File journal = Repository.file(JOURNAL_FILE);
+        if (!journal.isFile()) return;
+        byte[] content = Utils.readContents(journal);
+        int end = parseJournal(ByteBuffer.wrap(content), new ArrayList<>());
+        if (end == content.length) return;
+        try (FileChannel channel = FileChannel.open(journal.toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(end);
+        }
+    }
+
+    private static String readPath(ByteBuffer buf, int pos) {
+        int length = buf.getShort(pos) & 0xffff;
+        byte[] path = new byte[length];
+        buf.get(pos + 2, path);
+        return new String(path, StandardCharsets.UTF_8);
+    }
+
+    private static String readId(ByteBuffer buf, int pos, int idBytes) {
+        byte[] id = new byte[idBytes];
+        buf.get(pos, id);
+        return HashAlgorithm.toHex(id);
+    }
+
+    /** Compare the path stored at POS with KEY, byte by byte, unsigned. */
+    private static int comparePath(ByteBuffer buf, int pos, byte[] key) {
+        int length = buf.getShort(pos) & 0xffff;
+        int n = Math.min(length, key.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = Integer.compare(buf.get(pos + 2 + i) & 0xff, key[i] & 0xff);
+            if (cmp != 0) return cmp;
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    private static byte[] toBytes(String hex, int idBytes) {
+        byte[] bytes = new byte[idBytes];
+        for (int i = 0; i < idBytes; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+}
@@ -2,6 +2,8 @@ package gitlet;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
 
 /** Driver class for Gitlet, the tiny stupid version-control system.
  *  @author
@@ -10,11 +12,14 @@ public class Main {
 
     /** Usage: java gitlet.Main ARGS, where ARGS contains
      * init Create a new Gitlet in current directory.
-     * add [file name] Add a copy of the file to the staging area.
+     * add [file name | directory | glob | -A]... Add copies of the files to the staging area.
      * commit [message] Save certain files in the current commit.
      * rm [filename] Unstage the file if it is currently staged.
-     * log Display info of commits from current to initial commit.
-     * global-log Displa info about all commits ever made.
+     * log [-- file name] Display info of commits from current to initial commit.
+     * global-log [--since date] [--until date] Display info about all commits ever made, newest first.
+     * fsck [--threads N] Check the integrity and connectivity of every object.
+     * count-objects Print object counts, sizes, history depth and growth of the object store as JSON.
+     * reflog [ref | expire [--days N]] Display every value HEAD or a branch has had, newest first.
      * find [commit message] Prints out the ids of all commits that have the given commit message.
      * status Display what branches currently exist, and mark the current branch with *.
      * checkout
@@ -23,9 +28,22 @@ public class Main {
      *      3. [branch name]
      *  branch [branch name]
      *  rm-branch [branch name]
+     *  pack-refs
+     *  sparse-checkout [set pattern ... | list | disable]
+     *  monitor
+     *  diff [--cached | commit id commit id]
+     *  add-remote [remote name] [name of remote directory]/.gitlet
+     *  rm-remote [remote name]
+     *  push [remote name] [remote branch name]
+     *  fetch [remote name] [remote branch name]
+     *  pull [remote name] [remote branch name]
+     *  blame [-L start,end] [file name]
+     *  clone [name of remote directory]/.gitlet [--filter=blob:none]
+     *  archive [commit id | branch name] [-o file.tar | file.tar.gz]
      *  reset [commit id]
-     *  merge [branch name]
+     *  merge [--dry-run] [branch name]
      *  rebase [branch name]
+     *  batch [file name]
      *
      * <COMMAND> <OPERAND> .... */
     public static void main(String... args) {
@@ -40,11 +58,21 @@ public class Main {
          * 4. If a user inputs a command that requires being in an initialized Gitlet working
          * directory (i.e., one containing a .gitlet subdirectory), but is not in such a directory, print the message Not in an initialized Gitlet directory.
          */
-        // Requirement 1
-        if (args.length == 0) {
-            Utils.message("Please enter a command.");
-            System.exit(0);
+        try {
+            execute(args);
+        } catch (GitletException e) {
+            if (e.getMessage() != null) Utils.message(e.getMessage());
         }
+    }
+
+    /**
+     * Run one command in this process.
+     * Every failure, and every message that ends a command early, is thrown as a GitletException.
+     * @param args command name followed by its operands
+     */
+    static void execute(String... args) {
+        // Requirement 1
+        if (args.length == 0) Gitlet.printAndExit("Please enter a command.");
         // Get operands for gitlet commands.
         // Requirements 3 and 4 are implemented in Cmd.java
         int operandsCount = args.length - 1;
@@ -53,13 +81,54 @@ public class Main {
         String cmd = args[0];
         if (cmd.equals("global-log")) cmd = "globalLog";
         if (cmd.equals("rm-branch")) cmd = "rmBranch";
+        if (cmd.equals("pack-refs")) cmd = "packRefs";
+        if (cmd.equals("count-objects")) cmd = "countObjects";
+        if (cmd.equals("add-remote")) cmd = "addRemote";
+        if (cmd.equals("rm-remote")) cmd = "rmRemote";
+        if (cmd.equals("sparse-checkout")) cmd = "sparseCheckout";
+        Reflog.setMessage(args);
+        Method m;
+        try {
+            m = Cmd.class.getMethod(cmd, String[].class);
+        } catch (NoSuchMethodException e) {
+            throw new GitletException("No command with that name exists.");
+        }
         try {
-            Method m = Cmd.class.getMethod(cmd, String[].class);
             m.invoke(null, (Object) operands);
-        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
-            Utils.message("No command with that name exists.");
-            System.exit(0);
+        } catch (IllegalAccessException e) {
+            throw new GitletException("No command with that name exists.");
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new GitletException(e.getCause().getMessage());
+        } finally {
+            // Objects the command wrote, even if it failed half-way, are in the filter.
+            ObjectFilter.close();
+        }
+    }
+
+    /**
+     * Split a batch line into words at whitespace; double quotes group words containing spaces.
+     * @return the words, empty for a blank line or a comment starting with #.
+     */
+    static String[] splitLine(String line) {
+        List<String> words = new ArrayList<>();
+        if (line.strip().startsWith("#")) return new String[0];
+        StringBuilder word = null;
+        boolean quoted = false;
+        for (char c : line.toCharArray()) {
+            if (c == '"') {
+                quoted = !quoted;
+                if (word == null) word = new StringBuilder();
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (word != null) words.add(word.toString());
+                word = null;
+            } else {
+                if (word == null) word = new StringBuilder();
+                word.append(c);
+            }
         }
+        if (word != null) words.add(word.toString());
+        return words.toArray(new String[0]);
     }
 
 }
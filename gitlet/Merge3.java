@@ -0,0 +1,107 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * diff3-style line merge.
+ * Both sides are diffed against the base. Changes that touch different base lines
+ * are taken automatically; only changes that overlap (or touch) become conflict regions.
+ */
+public class Merge3 {
+    public static final String OURS_MARKER = "<<<<<<< HEAD\n";
+    public static final String SEPARATOR_MARKER = "=======\n";
+    public static final String THEIRS_MARKER = ">>>>>>>\n";
+
+    /**
+     * Merge the three versions line by line.
+     * @param base lines of the common ancestor
+     * @param ours lines of the current branch
+     * @param theirs lines of the given branch
+     * @param out merged lines are written here
+     * @return true if there is at least one conflict region.
+     */
+    public static boolean merge(List<String> base, List<String> ours, List<String> theirs, Writer out)
+            throws IOException {
+        List<Diff.Edit> oursEdits = Diff.diff(base, ours);
+        List<Diff.Edit> theirsEdits = Diff.diff(base, theirs);
+        boolean conflicted = false;
+        int pos = 0, i = 0, j = 0;
+        while (i < oursEdits.size() || j < theirsEdits.size()) {
+            // Start a region at the edit with the smallest base position.
+            int regionBegin, regionEnd;
+            int firstOurs = i, firstTheirs = j;
+            boolean takeOurs = (j >= theirsEdits.size()
+                    || (i < oursEdits.size() && oursEdits.get(i).beginA <= theirsEdits.get(j).beginA));
+            Diff.Edit first = takeOurs ? oursEdits.get(i++) : theirsEdits.get(j++);
+            regionBegin = first.beginA;
+            regionEnd = first.endA;
+            // Grow the region while an edit of either side overlaps or touches it.
+            boolean grown = true;
+            while (grown) {
+                grown = false;
+                if (i < oursEdits.size() && oursEdits.get(i).beginA <= regionEnd) {
+                    regionEnd = Math.max(regionEnd, oursEdits.get(i++).endA);
+                    grown = true;
+                }
+                if (j < theirsEdits.size() && theirsEdits.get(j).beginA <= regionEnd) {
+                    regionEnd = Math.max(regionEnd, theirsEdits.get(j++).endA);
+                    grown = true;
+                }
+            }
+
+            // Unchanged lines before the region.
+            writeLines(out, base.subList(pos, regionBegin));
+            pos = regionEnd;
+
+            List<String> oursPart = sideOfRegion(base, ours, oursEdits, firstOurs, i, regionBegin, regionEnd);
+            List<String> theirsPart = sideOfRegion(base, theirs, theirsEdits, firstTheirs, j, regionBegin, regionEnd);
+            if (firstTheirs == j) {
+                writeLines(out, oursPart);
+            } else if (firstOurs == i || oursPart.equals(theirsPart)) {
+                writeLines(out, theirsPart);
+            } else {
+                writeConflict(out, oursPart, theirsPart);
+                conflicted = true;
+            }
+        }
+        writeLines(out, base.subList(pos, base.size()));
+        return conflicted;
+    }
+
+    /**
+     * The lines one side has in place of base[regionBegin, regionEnd).
+     * @param edits edits of that side, [from, to) are the ones inside the region.
+     */
+    private static List<String> sideOfRegion(List<String> base, List<String> side, List<Diff.Edit> edits,
+                                             int from, int to, int regionBegin, int regionEnd) {
+        if (from == to) return base.subList(regionBegin, regionEnd);
+        // Between its edits a side matches base line by line, so only the ends need shifting.
+        Diff.Edit first = edits.get(from), last = edits.get(to - 1);
+        int sideBegin = first.beginB - (first.beginA - regionBegin);
+        int sideEnd = last.endB + (regionEnd - last.endA);
+        return side.subList(sideBegin, sideEnd);
+    }
+
+    /**
+     * Write one conflict region holding both versions whole.
+     */
+    static void writeConflict(Writer out, List<String> ours, List<String> theirs) throws IOException {
+        out.write(OURS_MARKER);
+        writeTerminatedLines(out, ours);
+        out.write(SEPARATOR_MARKER);
+        writeTerminatedLines(out, theirs);
+        out.write(THEIRS_MARKER);
+    }
+
+    private static void writeLines(Writer out, List<String> lines) throws IOException {
+        for (String line : lines) out.write(line);
+    }
+
+    /** Write lines, making sure a marker following them starts on its own line. */
+    private static void writeTerminatedLines(Writer out, List<String> lines) throws IOException {
+        writeLines(out, lines);
+        if (!lines.isEmpty() && !lines.get(lines.size() - 1).endsWith("\n")) out.write("\n");
+    }
+}
@@ -0,0 +1,279 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter over the ids of every object in an objects directory, so that
+ * "is this object stored?" is answered without a syscall when the answer is no.
+ * Writing a blob, fetching promised objects and negotiating a transfer ask it for
+ * every id; only a possible hit is confirmed with File.exists().
+ *
+ * Object ids are already uniform hashes, so the k bit positions come from two
+ * 64-bit words of the id itself (double hashing), with about 10 bits per object
+ * for a false-positive rate near 1%.
+ *
+ * .gitlet/objects-filter persists it between commands:
+ *  header: int magic, long mtime of the objects directory, long time the filter was saved,
+ *          int hash count, long objects added, long capacity, then the cumulative metrics
+ *          (long queries, long definite misses, long false positives)
+ *  bits:   long[capacity * BITS_PER_OBJECT / 64]
+ * The mtime is read before the directory is listed or the filter saved, so a change made
+ * meanwhile leaves it behind. A filter whose recorded mtime differs from the directory's
+ * is stale, e.g. another process wrote or deleted objects, and is rebuilt from one listing
+ * of the directory. So is one whose mtime is within RACY_NANOS of its save: another write
+ * in the same tick of a coarse clock would not have changed the mtime.
+ * Objects written through gitlet are added as they are written, and the filter of
+ * the current repository is saved once at the end of each command. Removing objects
+ * (gc) changes the mtime, so a Bloom filter never needs deletions.
+ * With -Dgitlet.objectFilterStats=true each command prints the metrics to stderr and
+ * keeps them in the file; otherwise a command that only queries never writes it.
+ */
+public class ObjectFilter {
+    public static final File FILTER_FILE = new File("./.gitlet/objects-filter");
+    private static final boolean PRINT_STATS = Boolean.getBoolean("gitlet.objectFilterStats");
+    private static final int MAGIC = 0x474c4246;
+    private static final int HEADER_SIZE = 4 + 8 + 8 + 4 + 8 + 8 + 3 * 8;
+    /** Coarsest mtime granularity expected of a file system. */
+    private static final long RACY_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int BITS_PER_OBJECT = 10;
+    private static final int NUM_HASHES = 7;
+    private static final long MIN_CAPACITY = 1024;
+
+    private final File objectsDir;
+    private final File filterFile;
+    private final long capacity;
+    private final AtomicLongArray bits;
+    private final AtomicLong added;
+    /* Cumulative metrics. */
+    final AtomicLong queries, definiteMisses, falsePositives;
+    /** dirty: bits changed, the whole file is written; metricsDirty: only the metrics in the header. */
+    private volatile boolean dirty = false, metricsDirty = false;
+
+    private ObjectFilter(File objectsDir, File filterFile, long capacity, long[] words, long added, long[] metrics) {
+        this.objectsDir = objectsDir;
+        this.filterFile = filterFile;
+        this.capacity = capacity;
+        this.bits = new AtomicLongArray(words);
+        this.added = new AtomicLong(added);
+        this.queries = new AtomicLong(metrics[0]);
+        this.definiteMisses = new AtomicLong(metrics[1]);
+        this.falsePositives = new AtomicLong(metrics[2]);
+    }
+
+    /**
+     * @return the filter of the current repository, loaded once per command.
+     */
+    static ObjectFilter current() {
+        Repository repo = Repository.current();
+        // A class lock, see Repository.run. It serializes loads of every open repository,
+        // not only this one's: at most one listing of an objects directory runs at a time.
+        synchronized (ObjectFilter.class) {
+            if (repo.objectFilter == null) {
+                repo.objectFilter = load(Repository.file(Gitlet.OBJECT_PATH), Repository.file(FILTER_FILE));
+            }
+            return repo.objectFilter;
+        }
+    }
+
+    /**
+     * @param objectsDir objects directory of any repository, e.g. a remote's
+     * @return the filter of the current repository if OBJECTSDIR is its own, otherwise the
+     *         filter of the other repository, which the caller saves when it is done.
+     */
+    static ObjectFilter of(File objectsDir) {
+        if (objectsDir.getAbsoluteFile().equals(Repository.file(Gitlet.OBJECT_PATH).getAbsoluteFile())) {
+            return current();
+        }
+        return load(objectsDir, new File(objectsDir.getParentFile(), FILTER_FILE.getName()));
+    }
+
+    /**
+     * Save the filter of the current repository if the command added objects, and forget it,
+     * so the next command checks again whether another process changed the objects.
+     */
+    static void close() {
+        Repository repo = Repository.current();
+        ObjectFilter filter;
+        synchronized (ObjectFilter.class) {
+            filter = repo.objectFilter;
+            repo.objectFilter = null;
+        }
+        if (filter == null) return;
+        filter.save();
+        if (PRINT_STATS) System.err.println(filter.stats());
+    }
+
+    /** @return true if the object ID is stored in the current repository. */
+    static boolean exists(String id) {
+        return current().contains(id);
+    }
+
+    /** Record that the object ID was just written to the current repository. */
+    static void recordWrite(String id) {
+        current().add(id);
+    }
+
+    /**
+     * @return true if the object is stored; a definite miss costs no syscall.
+     */
+    boolean contains(String id) {
+        queries.incrementAndGet();
+        metricsDirty = true;
+        if (!mightContain(id)) {
+            definiteMisses.incrementAndGet();
+            return false;
+        }
+        if (new File(objectsDir, id).exists()) return true;
+        falsePositives.incrementAndGet();
+        return false;
+    }
+
+    boolean mightContain(String id) {
+        long[] hashes = hashes(id);
+        if (hashes == null) return true;
+        long numBits = (long) bits.length() * 64;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            long bit = Math.floorMod(hashes[0] + i * hashes[1], numBits);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    void add(String id) {
+        long[] hashes = hashes(id);
+        if (hashes == null) return;
+        long numBits = (long) bits.length() * 64;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            long bit = Math.floorMod(hashes[0] + i * hashes[1], numBits);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long old;
+            do {
+                old = bits.get(word);
+            } while ((old & mask) == 0 && !bits.compareAndSet(word, old, old | mask));
+        }
+        added.incrementAndGet();
+        dirty = true;
+    }
+
+    /**
+     * @return two words of the id, null for a name that is not an object id.
+     */
+    private static long[] hashes(String id) {
+        if (id.length() < 32) return null;
+        try {
+            long h1 = Long.parseUnsignedLong(id.substring(0, 16), 16);
+            long h2 = Long.parseUnsignedLong(id.substring(16, 32), 16) | 1;
+            return new long[]{h1, h2};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * One line of metrics: the false-positive rate among possible hits, and the syscalls
+     * saved, one per definite miss.
+     */
+    String stats() {
+        long q = queries.get(), misses = definiteMisses.get(), fp = falsePositives.get();
+        long negatives = misses + fp;
+        return String.format("object filter: %d objects, capacity %d, %d queries, "
+                        + "%d syscalls saved, false-positive rate %.2f%% (%d of %d absent objects)",
+                added.get(), capacity, q, misses, negatives == 0 ? 0.0 : 100.0 * fp / negatives, fp, negatives);
+    }
+
+    private static long mtime(File dir) {
+        try {
+            return Files.getLastModifiedTime(dir.toPath()).to(TimeUnit.NANOSECONDS);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static ObjectFilter load(File objectsDir, File filterFile) {
+        long[] metrics = new long[3];
+        if (filterFile.isFile() && filterFile.length() >= HEADER_SIZE) {
+            ByteBuffer buf = ByteBuffer.wrap(Utils.readContents(filterFile));
+            if (buf.getInt() == MAGIC) {
+                long dirMtime = buf.getLong(), savedAt = buf.getLong();
+                int numHashes = buf.getInt();
+                long added = buf.getLong(), capacity = buf.getLong();
+                for (int i = 0; i < metrics.length; i++) metrics[i] = buf.getLong();
+                if (dirMtime == mtime(objectsDir) && savedAt - dirMtime >= RACY_NANOS && numHashes == NUM_HASHES && added <= capacity
+                        && buf.remaining() == capacity * BITS_PER_OBJECT / 8) {
+                    long[] words = new long[buf.remaining() / 8];
+                    buf.asLongBuffer().get(words);
+                    return new ObjectFilter(objectsDir, filterFile, capacity, words, added, metrics);
+                }
+            }
+        }
+        return build(objectsDir, filterFile, metrics);
+    }
+
+    /** Build a filter from a listing of the objects, with room for twice as many. */
+    private static ObjectFilter build(File objectsDir, File filterFile, long[] metrics) {
+        List<String> ids = objectsDir.isDirectory() ? Utils.plainFilenamesIn(objectsDir) : List.of();
+        // A multiple of 64 objects makes the bits a whole number of longs.
+        long capacity = Math.max(MIN_CAPACITY, (2L * ids.size() + 63) / 64 * 64);
+        ObjectFilter filter = new ObjectFilter(objectsDir, filterFile, capacity,
+                new long[(int) (capacity * BITS_PER_OBJECT / 64)], 0, metrics);
+        for (String id : ids) filter.add(id);
+        return filter;
+    }
+
+    /**
+     * Write the filter if it changed, rebuilt larger once more objects were added than it was sized for.
+     * If only the metrics changed, they are updated in place.
+     */
+    void save() {
+        if (!objectsDir.isDirectory()) return;
+        if (!dirty) {
+            if (PRINT_STATS && metricsDirty && filterFile.isFile()) saveMetrics();
+            return;
+        }
+        // Read before listing and writing, so objects written meanwhile make the file stale.
+        long savedAt = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+        long dirMtime = mtime(objectsDir);
+        ObjectFilter filter = this;
+        if (added.get() > capacity) {
+            filter = build(objectsDir, filterFile, new long[]{queries.get(), definiteMisses.get(), falsePositives.get()});
+        }
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + filter.bits.length() * 8);
+        buf.putInt(MAGIC).putLong(dirMtime).putLong(savedAt).putInt(NUM_HASHES)
+                .putLong(filter.added.get()).putLong(filter.capacity)
+                .putLong(queries.get()).putLong(definiteMisses.get()).putLong(falsePositives.get());
+        for (int i = 0; i < filter.bits.length(); i++) buf.putLong(filter.bits.get(i));
+        File tmpFile = new File(filterFile.getPath() + ".lock");
+        Utils.writeContents(tmpFile, buf.array());
+        try {
+            Files.move(tmpFile.toPath(), filterFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw Utils.error(e.getMessage());
+        }
+        dirty = false;
+        metricsDirty = false;
+    }
+
+    private void saveMetrics() {
+        ByteBuffer metrics = ByteBuffer.allocate(3 * 8);
+        metrics.putLong(queries.get()).putLong(definiteMisses.get()).putLong(falsePositives.get());
+        try (RandomAccessFile raf = new RandomAccessFile(filterFile, "rw")) {
+            if (raf.length() < HEADER_SIZE || raf.readInt() != MAGIC) return;
+            raf.seek(HEADER_SIZE - 3 * 8);
+            raf.write(metrics.array());
+        } catch (IOException e) {
+            throw Utils.error(e.getMessage());
+        }
+        metricsDirty = false;
+    }
+}
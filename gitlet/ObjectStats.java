@@ -0,0 +1,251 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * count-objects: statistics of the object store for capacity planning, printed as JSON.
+ *
+ * One parallel pass reads the attributes and the first bytes of every object, which tell
+ * a commit (see Commit.isSerialized) and a chunk manifest from plain content. Only commits
+ * are decoded, and manifests listed; blob contents are never read. The output:
+ *  objects, bytes            every object file and their total size on disk
+ *  commits, blobs, chunks    blobs include chunked ones once, chunks count their pieces
+ *  unreadable                objects that look like commits but do not decode
+ *  blobSizes                 blobs by size, keyed by the power of two that bounds them,
+ *                            e.g. "1024": blobs of 513 to 1024 bytes
+ *  largestBlobs              the 10 biggest blobs, each with a path they were committed as
+ *  history                   headDepth: commits on the first-parent chain of HEAD;
+ *                            maxDepth: the longest chain of parents of any commit
+ *  growth                    objects and bytes written per day, by file modification time
+ */
+public class ObjectStats {
+    private static final int LARGEST = 10;
+
+    /** What the pass learned about one object. */
+    private static class Info {
+        final String id;
+        final long size;
+        final LocalDate date;
+        /** Non-null if the object is a commit. */
+        final Commit commit;
+        /** Non-null if the object is a chunk manifest. */
+        final List<String> chunks;
+        /** True if the object starts like a commit but does not decode. */
+        final boolean unreadable;
+
+        Info(String id, long size, LocalDate date, Commit commit, List<String> chunks, boolean unreadable) {
+            this.id = id;
+            this.size = size;
+            this.date = date;
+            this.commit = commit;
+            this.chunks = chunks;
+            this.unreadable = unreadable;
+        }
+    }
+
+    /** Print the statistics of the current repository. */
+    static void print() {
+        File objectsDir = Repository.file(Gitlet.OBJECT_PATH);
+        Map<String, Info> infos = new HashMap<>();
+        Utils.plainFilenamesIn(objectsDir).parallelStream()
+                .map((id) -> inspect(objectsDir, id))
+                .toList()
+                .forEach((info) -> infos.put(info.id, info));
+
+        Set<String> chunkIds = new HashSet<>();
+        for (Info info : infos.values()) {
+            if (info.chunks != null) chunkIds.addAll(info.chunks);
+        }
+        long bytes = 0, commits = 0, unreadable = 0;
+        Map<String, Long> blobSizes = new HashMap<>();
+        TreeMap<Long, Long> histogram = new TreeMap<>();
+        TreeMap<LocalDate, long[]> growth = new TreeMap<>();
+        for (Info info : infos.values()) {
+            bytes += info.size;
+            long[] day = growth.computeIfAbsent(info.date, (d) -> new long[2]);
+            day[0]++;
+            day[1] += info.size;
+            if (info.commit != null) commits++;
+            else if (info.unreadable) unreadable++;
+            else if (!chunkIds.contains(info.id)) {
+                long size = info.size;
+                if (info.chunks != null) {
+                    size = 0;
+                    for (String chunk : info.chunks) {
+                        Info chunkInfo = infos.get(chunk);
+                        if (chunkInfo != null) size += chunkInfo.size;
+                    }
+                }
+                blobSizes.put(info.id, size);
+                histogram.merge(size <= 1 ? 1 : Long.highestOneBit(size - 1) << 1, 1L, Long::sum);
+            }
+        }
+        List<Map.Entry<String, Long>> largest = new ArrayList<>(blobSizes.entrySet());
+        largest.sort(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+        largest = largest.subList(0, Math.min(LARGEST, largest.size()));
+        Map<String, String> paths = pathsOf(infos, largest);
+
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"objects\": ").append(infos.size()).append(",\n");
+        json.append("  \"bytes\": ").append(bytes).append(",\n");
+        json.append("  \"commits\": ").append(commits).append(",\n");
+        json.append("  \"blobs\": ").append(blobSizes.size()).append(",\n");
+        json.append("  \"chunks\": ").append(chunkIds.stream().filter(infos::containsKey).count()).append(",\n");
+        json.append("  \"unreadable\": ").append(unreadable).append(",\n");
+        json.append("  \"blobSizes\": {");
+        String separator = "";
+        for (Map.Entry<Long, Long> bucket : histogram.entrySet()) {
+            json.append(separator).append('"').append(bucket.getKey()).append("\": ").append(bucket.getValue());
+            separator = ", ";
+        }
+        json.append("},\n  \"largestBlobs\": [");
+        separator = "\n";
+        for (Map.Entry<String, Long> blob : largest) {
+            json.append(separator).append("    {\"id\": \"").append(blob.getKey())
+                    .append("\", \"size\": ").append(blob.getValue()).append(", \"path\": ")
+                    .append(paths.containsKey(blob.getKey()) ? quote(paths.get(blob.getKey())) : "null").append('}');
+            separator = ",\n";
+        }
+        json.append(largest.isEmpty() ? "" : "\n  ").append("],\n");
+        json.append("  \"history\": {\"headDepth\": ").append(headDepth(infos))
+                .append(", \"maxDepth\": ").append(maxDepth(infos)).append("},\n");
+        json.append("  \"growth\": [");
+        separator = "\n";
+        for (Map.Entry<LocalDate, long[]> day : growth.entrySet()) {
+            json.append(separator).append("    {\"date\": \"").append(day.getKey())
+                    .append("\", \"objects\": ").append(day.getValue()[0])
+                    .append(", \"bytes\": ").append(day.getValue()[1]).append('}');
+            separator = ",\n";
+        }
+        json.append(growth.isEmpty() ? "" : "\n  ").append("]\n}");
+        System.out.println(json);
+    }
+
+    /** Read the attributes and the first bytes of an object; decode it only if it is a commit. */
+    private static Info inspect(File objectsDir, String id) {
+        File file = new File(objectsDir, id);
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            LocalDate date = LocalDate.ofInstant(Instant.ofEpochMilli(attrs.lastModifiedTime().toMillis()),
+                    ZoneId.systemDefault());
+            byte[] head = in.readNBytes(Chunker.HEADER_LENGTH);
+            if (Chunker.isManifest(head)) {
+                return new Info(id, attrs.size(), date, null, Chunker.chunkIds(file), false);
+            }
+            if (!Commit.isSerialized(head)) return new Info(id, attrs.size(), date, null, null, false);
+            Commit commit = null;
+            try {
+                Object object = new ObjectInputStream(new SequenceInputStream(new ByteArrayInputStream(head), in))
+                        .readObject();
+                if (object instanceof Commit) commit = (Commit) object;
+            } catch (IOException | ClassNotFoundException e) {
+                commit = null;
+            }
+            return new Info(id, attrs.size(), date, commit, null, commit == null);
+        } catch (IOException e) {
+            throw Utils.error(e.getMessage());
+        }
+    }
+
+    /**
+     * @return blob id -> a path it was committed as, for the blobs of LARGEST.
+     */
+    private static Map<String, String> pathsOf(Map<String, Info> infos, List<Map.Entry<String, Long>> largest) {
+        Set<String> wanted = new HashSet<>();
+        for (Map.Entry<String, Long> blob : largest) wanted.add(blob.getKey());
+        Map<String, String> paths = new HashMap<>();
+        // Newest commits first, so a blob is named as it was last committed.
+        List<Commit> commits = new ArrayList<>();
+        for (Info info : infos.values()) {
+            if (info.commit != null) commits.add(info.commit);
+        }
+        commits.sort(Comparator.comparing(Commit::getTime).reversed());
+        for (Commit commit : commits) {
+            if (paths.size() == wanted.size()) break;
+            commit.getBlobsMap().forEach((path, id) -> {
+                if (wanted.contains(id)) paths.putIfAbsent(id, path);
+            });
+        }
+        return paths;
+    }
+
+    /** @return the number of commits on the first-parent chain of HEAD. */
+    private static long headDepth(Map<String, Info> infos) {
+        long depth = 0;
+        for (String id = Gitlet.getHeadSHA1(); id != null; ) {
+            Info info = infos.get(id);
+            if (info == null || info.commit == null) break;
+            depth++;
+            id = info.commit.getParentSHA1();
+        }
+        return depth;
+    }
+
+    /**
+     * @return the length of the longest chain of parents, computed without recursion so
+     *         that a long history cannot overflow the stack.
+     */
+    private static long maxDepth(Map<String, Info> infos) {
+        Map<String, Long> depths = new HashMap<>();
+        long max = 0;
+        for (Info start : infos.values()) {
+            if (start.commit == null || depths.containsKey(start.id)) continue;
+            Deque<String> stack = new ArrayDeque<>();
+            stack.push(start.id);
+            while (!stack.isEmpty()) {
+                String id = stack.peek();
+                Commit commit = infos.get(id).commit;
+                long depth = 1;
+                boolean ready = true;
+                for (String parent : new String[]{commit.getParentSHA1(), commit.getParent2SHA1()}) {
+                    Info parentInfo = (parent == null) ? null : infos.get(parent);
+                    // A parent missing from the store, e.g. beyond a shallow clone, ends the chain.
+                    if (parentInfo == null || parentInfo.commit == null) continue;
+                    Long parentDepth = depths.get(parent);
+                    if (parentDepth == null) {
+                        stack.push(parent);
+                        ready = false;
+                    } else {
+                        depth = Math.max(depth, parentDepth + 1);
+                    }
+                }
+                if (!ready) continue;
+                stack.pop();
+                depths.put(id, depth);
+                max = Math.max(max, depth);
+            }
+        }
+        return max;
+    }
+
+    /** @return S as a JSON string literal. */
+    private static String quote(String s) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') quoted.append('\\').append(c);
+            else if (c < 0x20) quoted.append(String.format("\\u%04x", (int) c));
+            else quoted.append(c);
+        }
+        return quoted.append('"').toString();
+    }
+}
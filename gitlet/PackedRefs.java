@@ -0,0 +1,167 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The packed-refs file: every branch in one sorted file, one line per ref.
+ *  Line format: "[commit id] [branch name]\n", sorted by branch name.
+ * Loose refs under Gitlet.BRANCHES_PATH always override the packed ones.
+ */
+public class PackedRefs {
+    public static final File PACKED_REFS_FILE = new File("./.gitlet/packed-refs");
+
+    /**
+     * Map the whole packed-refs file read-only.
+     * @return the mapped buffer, or null if there is no packed-refs file.
+     */
+    private static MappedByteBuffer map(File packedRefsFile) {
+        if (!packedRefsFile.isFile() || packedRefsFile.length() == 0) return null;
+        try (RandomAccessFile raf = new RandomAccessFile(packedRefsFile, "r");
+             FileChannel channel = raf.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw Utils.error(e.getMessage());
+        }
+    }
+
+    /** Return the offset of the space between id and name in the line starting at pos. */
+    private static int separator(MappedByteBuffer buf, int pos) {
+        while (pos < buf.limit() && buf.get(pos) != ' ') pos++;
+        return pos;
+    }
+
+    /** Move pos back to the first byte of the line containing it. */
+    private static int lineStart(MappedByteBuffer buf, int pos) {
+        while (pos > 0 && buf.get(pos - 1) != '\n') pos--;
+        return pos;
+    }
+
+    /** Return the offset of the '\n' ending the line starting at pos. */
+    private static int lineEnd(MappedByteBuffer buf, int pos) {
+        while (pos < buf.limit() && buf.get(pos) != '\n') pos++;
+        return pos;
+    }
+
+    private static String readString(MappedByteBuffer buf, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++) bytes[i] = buf.get(from + i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Binary search the packed-refs file for the given branch.
+     * @param branchName name of the branch
+     * @return SHA1 of the branch front, or null if it is not packed.
+     */
+    static String lookup(String branchName) {
+        return lookup(Repository.file(PACKED_REFS_FILE), branchName);
+    }
+
+    /**
+     * Binary search a packed-refs file, e.g. the one of a remote repository.
+     */
+    static String lookup(File packedRefsFile, String branchName) {
+        MappedByteBuffer buf = map(packedRefsFile);
+        if (buf == null) return null;
+        // Search over byte offsets, snapping each probe to its line start.
+        int lo = 0, hi = buf.limit();
+        while (lo < hi) {
+            int start = lineStart(buf, lo + (hi - lo) / 2);
+            int end = lineEnd(buf, start);
+            int sep = separator(buf, start);
+            String name = readString(buf, sep + 1, end);
+            int cmp = name.compareTo(branchName);
+            if (cmp == 0) {
+                return readString(buf, start, sep);
+            } else if (cmp < 0) {
+                lo = end + 1;
+            } else {
+                hi = start;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Read all packed refs.
+     * @return sorted map of branch name -> SHA1, empty if nothing is packed.
+     */
+    static TreeMap<String, String> readAll() {
+        TreeMap<String, String> refs = new TreeMap<>();
+        MappedByteBuffer buf = map(Repository.file(PACKED_REFS_FILE));
+        if (buf == null) return refs;
+        int pos = 0;
+        while (pos < buf.limit()) {
+            int end = lineEnd(buf, pos);
+            int sep = separator(buf, pos);
+            if (sep < end) {
+                refs.put(readString(buf, sep + 1, end), readString(buf, pos, sep));
+            }
+            pos = end + 1;
+        }
+        return refs;
+    }
+
+    /**
+     * Sorted names of all packed refs.
+     */
+    static List<String> names() {
+        return new ArrayList<>(readAll().keySet());
+    }
+
+    /**
+     * Rewrite the packed-refs file with the given refs, or delete it if empty.
+     * @param refs map of branch name -> SHA1
+     */
+    static void writeAll(Map<String, String> refs) {
+        if (refs.isEmpty()) {
+            Repository.file(PACKED_REFS_FILE).delete();
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        new TreeMap<>(refs).forEach((name, sha1) -> {
+            sb.append(sha1).append(' ').append(name).append('\n');
+        });
+        // Write to a temp file and rename, so readers never see a half-written file.
+        File tmpFile = new File(Repository.file(PACKED_REFS_FILE).getPath() + ".lock");
+        Utils.writeContents(tmpFile, sb.toString());
+        if (!tmpFile.renameTo(Repository.file(PACKED_REFS_FILE))) {
+            throw Utils.error("Cannot update packed-refs.");
+        }
+    }
+
+    /**
+     * Remove one ref from the packed-refs file, if it is there.
+     * @param branchName name of the branch
+     */
+    static void remove(String branchName) {
+        if (lookup(branchName) == null) return;
+        TreeMap<String, String> refs = readAll();
+        refs.remove(branchName);
+        writeAll(refs);
+    }
+
+    /**
+     * Move all loose refs into the packed-refs file and delete them.
+     */
+    static void packLooseRefs() {
+        TreeMap<String, String> refs = readAll();
+        List<String> looseList = Gitlet.getLooseBranchList();
+        for (String branchName : looseList) {
+            refs.put(branchName, Utils.readContentsAsString(Repository.file(Gitlet.BRANCHES_PATH + branchName)));
+        }
+        writeAll(refs);
+        for (String branchName : looseList) {
+            Repository.file(Gitlet.BRANCHES_PATH + branchName).delete();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Partial clones. A repository cloned with --filter=blob:none has all commits but no blobs;
+ * .gitlet/promisor names the remote that promises to provide them.
+ * A missing object is copied from that remote the first time it is needed, and
+ * callers about to touch many blobs prefetch them in one batch.
+ */
+public class Promisor {
+    public static final File PROMISOR_FILE = new File("./.gitlet/promisor");
+
+    static boolean isPartial() {
+        return Repository.file(PROMISOR_FILE).isFile();
+    }
+
+    static void setRemote(String remoteName) {
+        Utils.writeContents(Repository.file(PROMISOR_FILE), remoteName);
+    }
+
+    private static File remoteObjectsDir() {
+        String remoteName = Utils.readContentsAsString(Repository.file(PROMISOR_FILE)).trim();
+        return new File(Remote.gitletDir(remoteName), "objects");
+    }
+
+    /**
+     * Get the file of an object, fetching it (and its chunks) from the promisor remote
+     * if this is a partial clone and the object is missing.
+     * @param id full id of the object
+     * @return the object file, which may not exist if nobody has the object.
+     */
+    static File objectFile(String id) {
+        File objectFile = Repository.file(Gitlet.OBJECT_PATH + id);
+        if (!ObjectFilter.exists(id) && isPartial()) {
+            List<String> ids = new ArrayList<>();
+            ids.add(id);
+            prefetch(ids);
+        }
+        return objectFile;
+    }
+
+    /**
+     * Get the file of an object without storing anything: in a partial clone a missing
+     * object is read where the promisor remote keeps it.
+     * @param id full id of the object
+     * @return the object file, which may not exist if nobody has the object.
+     */
+    static File peekObjectFile(String id) {
+        File objectFile = Repository.file(Gitlet.OBJECT_PATH + id);
+        if (objectFile.exists() || !isPartial()) return objectFile;
+        return new File(remoteObjectsDir(), id);
+    }
+
+    /**
+     * Fetch every missing object of IDS from the promisor remote in one batch,
+     * followed by the missing chunks of the chunked blobs among them.
+     * Does nothing outside a partial clone.
+     * @param ids full ids of blobs
+     */
+    static void prefetch(Collection<String> ids) {
+        if (!isPartial()) return;
+        File localObjects = Repository.file(Gitlet.OBJECT_PATH);
+        List<String> missing = missingIds(ids);
+        if (missing.isEmpty()) return;
+        File remoteObjects = remoteObjectsDir();
+        List<String> available = new ArrayList<>();
+        for (String id : missing) {
+            if (new File(remoteObjects, id).exists()) available.add(id);
+        }
+        Remote.copyObjects(remoteObjects, localObjects, available);
+
+        List<String> chunks = new ArrayList<>();
+        for (String id : available) {
+            File objectFile = new File(localObjects, id);
+            if (Chunker.isManifest(objectFile)) chunks.addAll(Chunker.chunkIds(objectFile));
+        }
+        List<String> missingChunks = missingIds(chunks);
+        missingChunks.removeIf((id) -> !new File(remoteObjects, id).exists());
+        Remote.copyObjects(remoteObjects, localObjects, missingChunks);
+    }
+
+    private static List<String> missingIds(Collection<String> ids) {
+        List<String> missing = new ArrayList<>();
+        for (String id : new LinkedHashSet<>(ids)) {
+            if (!ObjectFilter.exists(id)) missing.add(id);
+        }
+        return missing;
+    }
+}
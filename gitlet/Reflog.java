@@ -0,0 +1,229 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * The reflog: every value a ref has had, so commits that a reset, a rebase or rm-branch
+ * left behind can still be found without scanning every object.
+ *
+ * .gitlet/logs/HEAD logs HEAD, .gitlet/logs/refs/[branch] each branch, one line per change:
+ *      [old id] [new id] [time in ms, 13 digits] [message]\n
+ * the old id is all zeros for a new ref, the message is the command that moved the ref,
+ * e.g. "commit: added wug". A line is appended with one write to a file opened with
+ * O_APPEND, so the log is never read to be extended and a crash leaves at most a torn
+ * last line, which readers skip. Only the last byte is read before appending: if it is
+ * not a newline, the new line starts with one, so it is not glued to the torn one.
+ * The log of a deleted branch is kept.
+ *
+ * Readers map the file and walk it backwards from the end, newest line first, and can stop
+ * early: the reflog command after a few lines, roots() at the first expired entry.
+ * Entries younger than the expiry, gitlet.reflogExpireDays days (90 by default), keep
+ * their commits alive: fsck does not report them as dangling. "reflog expire" drops older ones.
+ */
+public class Reflog {
+    public static final String LOGS_PATH = "./.gitlet/logs/";
+    public static final String HEAD_LOG = "HEAD";
+    private static final int DEFAULT_EXPIRE_DAYS = Integer.getInteger("gitlet.reflogExpireDays", 90);
+
+    /** One line of a log. */
+    static class Entry {
+        final String oldId;
+        final String newId;
+        final long time;
+        final String message;
+
+        Entry(String oldId, String newId, long time, String message) {
+            this.oldId = oldId;
+            this.newId = newId;
+            this.time = time;
+            this.message = message;
+        }
+    }
+
+    /**
+     * Remember the command line of the command about to run, as the message of its entries.
+     * @param args command name followed by its operands
+     */
+    static void setMessage(String... args) {
+        StringBuilder message = new StringBuilder(args.length == 0 ? "" : args[0]);
+        for (int i = 1; i < args.length; i++) message.append(i == 1 ? ": " : " ").append(args[i]);
+        Repository.current().reflogMessage = message.toString();
+    }
+
+    /** @return the log file of REF, HEAD_LOG or a branch name. */
+    static File logFile(String ref) {
+        return Repository.file(LOGS_PATH + (ref.equals(HEAD_LOG) ? HEAD_LOG : "refs/" + ref));
+    }
+
+    /**
+     * Append one entry to the log of REF, unless the ref did not move.
+     * @param oldId previous value, null or "" for a new ref
+     * @param newId new value
+     */
+    static void record(String ref, String oldId, String newId) {
+        if (newId == null || newId.isEmpty() || newId.equals(oldId)) return;
+        if (oldId == null || oldId.isEmpty()) oldId = "0".repeat(newId.length());
+        String message = Repository.current().reflogMessage;
+        if (message == null) message = "update";
+        String line = line(oldId, newId, System.currentTimeMillis(), message.replace('\n', ' ').replace('\r', ' '));
+        File log = logFile(ref);
+        log.getParentFile().mkdirs();
+        try (FileChannel channel = FileChannel.open(log.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            if (endsTorn(log)) line = "\n" + line;
+            ByteBuffer buf = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+            while (buf.hasRemaining()) channel.write(buf);
+        } catch (IOException e) {
+            throw Utils.error(e.getMessage());
+        }
+    }
+
+    /** @return true if LOG does not end with a newline, the last line torn by a crash. */
+    private static boolean endsTorn(File log) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(log, "r")) {
+            if (raf.length() == 0) return false;
+            raf.seek(raf.length() - 1);
+            return raf.read() != '\n';
+        }
+    }
+
+    private static String line(String oldId, String newId, long time, String message) {
+        return String.format("%s %s %013d %s\n", oldId, newId, time, message);
+    }
+
+    /**
+     * Visit the entries of a log newest first, until VISITOR returns false.
+     * @return false if there is no such log
+     */
+    static boolean forEachNewestFirst(File log, Predicate<Entry> visitor) {
+        if (!log.isFile()) return false;
+        if (log.length() == 0) return true;
+        MappedByteBuffer buf;
+        try (RandomAccessFile raf = new RandomAccessFile(log, "r");
+             FileChannel channel = raf.getChannel()) {
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw Utils.error(e.getMessage());
+        }
+        // A last line without its newline was torn by a crash.
+        int end = buf.limit();
+        while (end > 0 && buf.get(end - 1) != '\n') end--;
+        while (end > 0) {
+            int start = end - 1;
+            while (start > 0 && buf.get(start - 1) != '\n') start--;
+            Entry entry = parse(buf, start, end - 1);
+            if (entry != null && !visitor.test(entry)) break;
+            end = start;
+        }
+        return true;
+    }
+
+    /** @return the entry in BUF[start, end), null if the line is malformed. */
+    private static Entry parse(ByteBuffer buf, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        buf.get(start, bytes);
+        String[] fields = new String(bytes, StandardCharsets.UTF_8).split(" ", 4);
+        if (fields.length < 3) return null;
+        try {
+            return new Entry(fields[0], fields[1], Long.parseLong(fields[2]), fields.length == 4 ? fields[3] : "");
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Print the log of REF newest first, "[short id] [ref]@{n}: [message]".
+     */
+    static void print(String ref) {
+        int[] n = {0};
+        boolean found = forEachNewestFirst(logFile(ref), (entry) -> {
+            System.out.println(entry.newId.substring(0, 7) + " " + ref + "@{" + n[0]++ + "}: " + entry.message);
+            return true;
+        });
+        if (!found) Gitlet.printAndExit("No reflog for that ref.");
+    }
+
+    /** @return names of every log: HEAD_LOG, then branches, deleted ones included. */
+    static List<String> refs() {
+        List<String> refs = new ArrayList<>();
+        if (logFile(HEAD_LOG).isFile()) refs.add(HEAD_LOG);
+        File refsDir = Repository.file(LOGS_PATH + "refs");
+        if (!refsDir.isDirectory()) return refs;
+        refs.addAll(Utils.plainFilenamesIn(refsDir));
+        File[] subDirs = refsDir.listFiles(File::isDirectory);
+        if (subDirs != null) {
+            for (File subDir : subDirs) {
+                for (String name : Utils.plainFilenamesIn(subDir)) refs.add(subDir.getName() + "/" + name);
+            }
+        }
+        return refs;
+    }
+
+    /** @return the earliest time an entry must have to outlive an expiry of DAYS days. */
+    private static long cutoff(int days) {
+        return System.currentTimeMillis() - TimeUnit.DAYS.toMillis(days);
+    }
+
+    /**
+     * @return the ids, old and new, of every unexpired entry of every log.
+     */
+    static Set<String> roots() {
+        Set<String> roots = new HashSet<>();
+        long cutoff = cutoff(DEFAULT_EXPIRE_DAYS);
+        for (String ref : refs()) {
+            forEachNewestFirst(logFile(ref), (entry) -> {
+                if (entry.time < cutoff) return false;
+                if (!entry.oldId.matches("0+")) roots.add(entry.oldId);
+                roots.add(entry.newId);
+                return true;
+            });
+        }
+        return roots;
+    }
+
+    /**
+     * Drop the entries older than DAYS days from every log, each rewritten under a
+     * temporary name and renamed over the old one.
+     * @param days negative for the default expiry
+     */
+    static void expire(int days) {
+        long cutoff = cutoff(days < 0 ? DEFAULT_EXPIRE_DAYS : days);
+        for (String ref : refs()) {
+            File log = logFile(ref);
+            List<Entry> kept = new ArrayList<>();
+            forEachNewestFirst(log, (entry) -> {
+                if (entry.time < cutoff) return false;
+                kept.add(entry);
+                return true;
+            });
+            StringBuilder content = new StringBuilder();
+            for (int i = kept.size() - 1; i >= 0; i--) {
+                Entry entry = kept.get(i);
+                content.append(line(entry.oldId, entry.newId, entry.time, entry.message));
+            }
+            File tmpFile = new File(log.getPath() + ".lock");
+            Utils.writeContents(tmpFile, content.toString());
+            try {
+                Files.move(tmpFile.toPath(), log.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                throw Utils.error(e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Remotes are other .gitlet directories on the local filesystem.
+ * .gitlet/remotes holds a serialized HashMap: remote name -> path of its .gitlet directory.
+ *
+ * Objects are transferred by a have/want walk: starting from the wanted tip, commits
+ * are followed through their parents until a commit the receiving side already has.
+ * Every commit, blob and chunk the receiver lacks is copied; the walk keeps going
+ * while earlier batches of blobs are being copied by a pool of I/O threads, and the
+ * commits follow once everything they refer to is in place.
+ */
+public class Remote {
+    public static final File REMOTES_FILE = new File("./.gitlet/remotes");
+    /** Objects per copy task. */
+    private static final int BATCH_SIZE = 128;
+    /** Threads copying object batches, override with -Dgitlet.transferThreads=N. */
+    private static final int TRANSFER_THREADS = Integer.getInteger("gitlet.transferThreads", 8);
+
+    @SuppressWarnings("unchecked")
+    static HashMap<String, String> readRemotes() {
+        if (!Repository.file(REMOTES_FILE).isFile()) return new HashMap<>();
+        return Utils.readObject(Repository.file(REMOTES_FILE), HashMap.class);
+    }
+
+    static void writeRemotes(HashMap<String, String> remotes) {
+        Utils.writeObject(Repository.file(REMOTES_FILE), remotes);
+    }
+
+    /**
+     * Get the .gitlet directory of a remote.
+     * If the directory does not exist, print "Remote directory not found." and exit.
+     * @param remoteName name given in add-remote
+     */
+    static File gitletDir(String remoteName) {
+        String path = readRemotes().get(remoteName);
+        if (path == null) Gitlet.printAndExit("A remote with that name does not exist.");
+        File dir = Repository.file(path);
+        if (!dir.isDirectory()) Gitlet.printAndExit("Remote directory not found.");
+        if (HashAlgorithm.ofRepository(dir) != HashAlgorithm.current()) {
+            Gitlet.printAndExit("Remote uses a different object format.");
+        }
+        return dir;
+    }
+
+    /**
+     * Read a branch of the remote, loose ref first, then its packed-refs.
+     * @return commit id, or null if the remote has no such branch.
+     */
+    static String readBranch(File gitletDir, String branchName) {
+        File branchFile = Utils.join(gitletDir, "refs", branchName);
+        if (branchFile.isFile()) return Utils.readContentsAsString(branchFile);
+        return PackedRefs.lookup(new File(gitletDir, PackedRefs.PACKED_REFS_FILE.getName()), branchName);
+    }
+
+    static void writeBranch(File gitletDir, String branchName, String commitId) {
+        File branchFile = Utils.join(gitletDir, "refs", branchName);
+        branchFile.getParentFile().mkdirs();
+        Utils.writeContents(branchFile, commitId);
+    }
+
+    /**
+     * Copy every object reachable from TIP that DST lacks.
+     * Objects are written in dependency order: chunks and plain blobs first, then chunk
+     * manifests, then the commits, each after its parents. An interrupted transfer thus never
+     * leaves the receiver with an object whose dependencies are missing, which is what lets
+     * the walk stop at the first commit the receiver has.
+     * @param srcObjects objects directory to copy from
+     * @param dstObjects objects directory to copy to
+     * @param tip id of the wanted commit
+     * @param withBlobs false to copy commits only, as a partial clone does.
+     * @return number of objects copied.
+     */
+    static int transfer(File srcObjects, File dstObjects, String tip, boolean withBlobs) {
+        boolean fromLocal = srcObjects.getAbsoluteFile().equals(Repository.file(Gitlet.OBJECT_PATH).getAbsoluteFile());
+        // What the receiver has is asked of its object filter, mostly without a syscall.
+        ObjectFilter dstFilter = ObjectFilter.of(dstObjects);
+        ExecutorService pool = Executors.newFixedThreadPool(TRANSFER_THREADS);
+        List<Future<?>> copies = new ArrayList<>();
+        Set<String> scheduled = new HashSet<>();
+        List<String> batch = new ArrayList<>();
+        List<String> manifests = new ArrayList<>();
+        LinkedHashMap<String, Commit> commits = new LinkedHashMap<>();
+        int count = 0;
+        try {
+            Queue<String> wants = new LinkedList<>();
+            wants.add(tip);
+            while (!wants.isEmpty()) {
+                String commitId = wants.poll();
+                // The receiver has this commit, so it has its whole history too.
+                if (commitId == null || scheduled.contains(commitId)
+                        || dstFilter.contains(commitId)) continue;
+                scheduled.add(commitId);
+                Commit commit = Utils.readObject(new File(srcObjects, commitId), Commit.class);
+                commits.put(commitId, commit);
+                wants.add(commit.getParentSHA1());
+                wants.add(commit.getParent2SHA1());
+                if (!withBlobs) continue;
+                for (String id : commit.getBlobsMap().values()) {
+                    if (scheduled.contains(id) || dstFilter.contains(id)) continue;
+                    scheduled.add(id);
+                    // Pushing from a partial clone: promised blobs have to be fetched first.
+                    File srcFile = fromLocal ? Promisor.objectFile(id) : new File(srcObjects, id);
+                    if (!Chunker.isManifest(srcFile)) {
+                        batch.add(id);
+                        continue;
+                    }
+                    manifests.add(id);
+                    for (String chunkId : Chunker.chunkIds(srcFile)) {
+                        if (scheduled.add(chunkId) && !dstFilter.contains(chunkId)) {
+                            if (fromLocal) Promisor.objectFile(chunkId);
+                            batch.add(chunkId);
+                        }
+                    }
+                }
+                if (batch.size() >= BATCH_SIZE) {
+                    count += batch.size();
+                    copies.add(pool.submit(copyTask(srcObjects, dstObjects, dstFilter, batch)));
+                    batch = new ArrayList<>();
+                }
+            }
+            count += batch.size() + manifests.size() + commits.size();
+            copies.add(pool.submit(copyTask(srcObjects, dstObjects, dstFilter, batch)));
+            waitAll(copies);
+            copies.clear();
+            for (int i = 0; i < manifests.size(); i += BATCH_SIZE) {
+                List<String> manifestBatch = manifests.subList(i, Math.min(manifests.size(), i + BATCH_SIZE));
+                copies.add(pool.submit(copyTask(srcObjects, dstObjects, dstFilter, manifestBatch)));
+            }
+            waitAll(copies);
+            copyTask(srcObjects, dstObjects, dstFilter, parentsFirst(commits)).run();
+        } finally {
+            pool.shutdown();
+            saveIfOther(dstFilter);
+        }
+        return count;
+    }
+
+    /**
+     * @return the ids of COMMITS ordered so that every commit comes after those of its parents
+     *         that are among COMMITS.
+     */
+    private static List<String> parentsFirst(LinkedHashMap<String, Commit> commits) {
+        List<String> order = new ArrayList<>();
+        Set<String> done = new HashSet<>();
+        Deque<String> stack = new ArrayDeque<>();
+        for (String start : commits.keySet()) {
+            stack.push(start);
+            while (!stack.isEmpty()) {
+                String id = stack.peek();
+                if (done.contains(id)) {
+                    stack.pop();
+                    continue;
+                }
+                boolean ready = true;
+                for (String parent : new String[]{commits.get(id).getParentSHA1(), commits.get(id).getParent2SHA1()}) {
+                    if (parent != null && commits.containsKey(parent) && !done.contains(parent)) {
+                        stack.push(parent);
+                        ready = false;
+                    }
+                }
+                if (ready) {
+                    stack.pop();
+                    done.add(id);
+                    order.add(id);
+                }
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Copy the given objects in parallel batches.
+     * @return number of objects copied.
+     */
+    static int copyObjects(File srcObjects, File dstObjects, List<String> ids) {
+        ObjectFilter dstFilter = ObjectFilter.of(dstObjects);
+        ExecutorService pool = Executors.newFixedThreadPool(TRANSFER_THREADS);
+        List<Future<?>> copies = new ArrayList<>();
+        try {
+            for (int i = 0; i < ids.size(); i += BATCH_SIZE) {
+                List<String> batch = ids.subList(i, Math.min(ids.size(), i + BATCH_SIZE));
+                copies.add(pool.submit(copyTask(srcObjects, dstObjects, dstFilter, batch)));
+            }
+            waitAll(copies);
+        } finally {
+            pool.shutdown();
+            saveIfOther(dstFilter);
+        }
+        return ids.size();
+    }
+
+    /** The filter of the current repository is saved when the command ends, another one now. */
+    private static void saveIfOther(ObjectFilter filter) {
+        if (filter != ObjectFilter.current()) filter.save();
+    }
+
+    private static void waitAll(List<Future<?>> copies) {
+        try {
+            for (Future<?> copy : copies) copy.get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw Utils.error("Transfer failed: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Copy a batch of objects. Each object is written under a temporary name and
+     * renamed, so a reader never sees a partial object.
+     */
+    private static Runnable copyTask(File srcObjects, File dstObjects, ObjectFilter dstFilter, List<String> ids) {
+        return () -> {
+            for (String id : ids) {
+                File tmpFile = new File(dstObjects, id + ".tmp");
+                try {
+                    Files.copy(new File(srcObjects, id).toPath(), tmpFile.toPath(),
+                            StandardCopyOption.REPLACE_EXISTING);
+                    Files.move(tmpFile.toPath(), new File(dstObjects, id).toPath(),
+                            StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    dstFilter.add(id);
+                } catch (IOException e) {
+                    throw Utils.error(e.getMessage());
+                }
+            }
+        };
+    }
+
+    /**
+     * @return names of the remote's own branches, loose and packed, sorted.
+     */
+    static List<String> branchList(File gitletDir) {
+        TreeSet<String> branches = new TreeSet<>(Utils.plainFilenamesIn(new File(gitletDir, "refs")));
+        File packedRefsFile = new File(gitletDir, PackedRefs.PACKED_REFS_FILE.getName());
+        if (packedRefsFile.isFile()) {
+            for (String line : Utils.readContentsAsString(packedRefsFile).split("\n")) {
+                int sep = line.indexOf(' ');
+                if (sep > 0 && line.indexOf('/', sep) < 0) branches.add(line.substring(sep + 1));
+            }
+        }
+        return new ArrayList<>(branches);
+    }
+
+    /**
+     * @return true if ANCESTOR is COMMITID or one of its ancestors, in the local store.
+     */
+    static boolean isAncestor(String ancestor, String commitId) {
+        return new HashSet<>(Gitlet.getAllAncestors(commitId)).contains(ancestor);
+    }
+}
@@ -0,0 +1,252 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * A gitlet repository rooted at any directory, for embedding gitlet in another program.
+ *
+ * Every path gitlet uses (Gitlet.OBJECT_PATH, Gitlet.HEAD_FILE, working files, ...) is
+ * relative, and is resolved by file() against the repository the current thread is
+ * working in; outside of a Repository call that is the process working directory,
+ * so the command line behaves as before. State that used to be static per process,
+ * the object format, the commit-graph, the object filter and the batch caches, lives here instead.
+ *
+ * Each operation holds the lock of its repository, so one repository runs one command
+ * at a time, while different repositories run concurrently on different threads.
+ * Output is captured per thread and returned in a Result together with the message
+ * of a failure, instead of being printed.
+ */
+public class Repository {
+    /** One instance per directory, so that two callers always share a lock. */
+    private static final ConcurrentHashMap<Path, Repository> OPEN = new ConcurrentHashMap<>();
+    /** The process working directory, used by the command line. */
+    private static final Repository WORKING_DIR = new Repository(Paths.get(""));
+    private static final ThreadLocal<Repository> CURRENT = new ThreadLocal<>();
+    /** Output of the command running on this thread, null if it goes to the real stdout. */
+    private static final ThreadLocal<ByteArrayOutputStream> CAPTURE = new ThreadLocal<>();
+    private static boolean captureInstalled = false;
+
+    private final Path root;
+
+    /* Per-repository state, see HashAlgorithm, CommitGraph, ObjectFilter and Gitlet. */
+    HashAlgorithm objectFormat;
+    HashMap<String, CommitGraph.Entry> commitGraph;
+    ObjectFilter objectFilter;
+    boolean batchMode = false;
+    String cachedHEAD;
+    HashMap<String, String> cachedIndex;
+    Commit cachedHeadCommit;
+    String cachedHeadCommitId;
+    boolean headDirty = false, indexDirty = false;
+    /** Message of the reflog entries of the running command, see Reflog. */
+    String reflogMessage;
+
+    /** The result of one operation. */
+    public static class Result {
+        /** Everything the command printed. */
+        public final String output;
+        /** Message of the failure, null if the command succeeded. */
+        public final String error;
+
+        Result(String output, String error) {
+            this.output = output;
+            this.error = error;
+        }
+
+        public boolean ok() { return error == null; }
+    }
+
+    private Repository(Path root) {
+        this.root = root;
+    }
+
+    /**
+     * Get the repository rooted at a directory; the directory need not contain .gitlet yet.
+     * @param root working directory of the repository
+     */
+    public static Repository open(Path root) {
+        Path normalized = root.toAbsolutePath().normalize();
+        return OPEN.computeIfAbsent(normalized, Repository::new);
+    }
+
+    public Path getRoot() { return this.root; }
+
+    /**
+     * @return the repository the current thread is working in.
+     */
+    static Repository current() {
+        Repository repo = CURRENT.get();
+        return repo == null ? WORKING_DIR : repo;
+    }
+
+    /**
+     * Resolve a path against the root of the current repository.
+     * @param path relative path, e.g. Gitlet.OBJECT_PATH + id or "./" + a working file name.
+     *             An absolute path is returned unchanged.
+     */
+    static File file(String path) {
+        return current().root.resolve(path).toFile();
+    }
+
+    static File file(File path) {
+        return file(path.getPath());
+    }
+
+    /**
+     * Run TASK with this as the current repository of the calling thread.
+     * Parallel sections use it so that their worker threads resolve the caller's paths.
+     */
+    <T> T enter(Supplier<T> task) {
+        Repository previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return task.get();
+        } finally {
+            if (previous == null) CURRENT.remove();
+            else CURRENT.set(previous);
+        }
+    }
+
+    void enter(Runnable task) {
+        enter(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * Run any gitlet command on this repository.
+     * The lock of this repository is held for the whole command, while parallel sections
+     * wait for workers that enter() it. So state that workers create lazily, e.g. the
+     * object format or the object filter, must not be guarded by this lock, or a worker
+     * would wait for its own caller: it is guarded by a lock of its class instead.
+     * @param args command name followed by its operands, as on the command line.
+     */
+    public synchronized Result run(String... args) {
+        installCapture();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CAPTURE.set(out);
+        String error = null;
+        try {
+            enter(() -> Main.execute(args));
+        } catch (GitletException | IllegalArgumentException e) {
+            error = (e.getMessage() == null) ? e.toString() : e.getMessage();
+        } finally {
+            CAPTURE.remove();
+        }
+        return new Result(out.toString(StandardCharsets.UTF_8), error);
+    }
+
+    /**
+     * Send System.out of threads with a capture buffer into their buffer.
+     * Installed once; other threads keep printing to the original stream.
+     */
+    private static synchronized void installCapture() {
+        if (captureInstalled) return;
+        PrintStream stdout = System.out;
+        OutputStream demux = new OutputStream() {
+            @Override
+            public void write(int b) {
+                ByteArrayOutputStream capture = CAPTURE.get();
+                if (capture != null) capture.write(b);
+                else stdout.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                ByteArrayOutputStream capture = CAPTURE.get();
+                if (capture != null) capture.write(b, off, len);
+                else stdout.write(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                if (CAPTURE.get() == null) stdout.flush();
+            }
+        };
+        System.setOut(new PrintStream(demux, true, StandardCharsets.UTF_8));
+        captureInstalled = true;
+    }
+
+    /* One method per command, with the operands of the command line. */
+
+    public Result init(String... options) { return run(concat("init", options)); }
+
+    public Result add(String... pathspecs) { return run(concat("add", pathspecs)); }
+
+    public Result commit(String message) { return run("commit", message); }
+
+    public Result rm(String fileName) { return run("rm", fileName); }
+
+    public Result log(String... options) { return run(concat("log", options)); }
+
+    public Result globalLog(String... options) { return run(concat("global-log", options)); }
+
+    public Result fsck(String... options) { return run(concat("fsck", options)); }
+
+    public Result countObjects() { return run("count-objects"); }
+
+    public Result reflog(String... args) { return run(concat("reflog", args)); }
+
+    public Result find(String message) { return run("find", message); }
+
+    public Result status() { return run("status"); }
+
+    public Result checkout(String... args) { return run(concat("checkout", args)); }
+
+    public Result branch(String branchName) { return run("branch", branchName); }
+
+    public Result rmBranch(String branchName) { return run("rm-branch", branchName); }
+
+    public Result archive(String... args) { return run(concat("archive", args)); }
+
+    public Result reset(String commitId) { return run("reset", commitId); }
+
+    public Result merge(String... args) { return run(concat("merge", args)); }
+
+    public Result rebase(String branchName) { return run("rebase", branchName); }
+
+    public Result diff(String... args) { return run(concat("diff", args)); }
+
+    public Result blame(String... args) { return run(concat("blame", args)); }
+
+    public Result packRefs() { return run("pack-refs"); }
+
+    public Result sparseCheckout(String... args) { return run(concat("sparse-checkout", args)); }
+
+    public Result addRemote(String remoteName, String remotePath) { return run("add-remote", remoteName, remotePath); }
+
+    public Result rmRemote(String remoteName) { return run("rm-remote", remoteName); }
+
+    public Result push(String remoteName, String branchName) { return run("push", remoteName, branchName); }
+
+    public Result fetch(String remoteName, String branchName) { return run("fetch", remoteName, branchName); }
+
+    public Result pull(String remoteName, String branchName) { return run("pull", remoteName, branchName); }
+
+    /** Clone into this repository's directory, as "clone [remote path] [options]". */
+    public Result cloneFrom(String remotePath, String... options) {
+        String[] args = new String[options.length + 2];
+        args[0] = "clone";
+        args[1] = remotePath;
+        System.arraycopy(options, 0, args, 2, options.length);
+        return run(args);
+    }
+
+    private static String[] concat(String command, String[] operands) {
+        String[] args = new String[operands.length + 1];
+        args[0] = command;
+        System.arraycopy(operands, 0, args, 1, operands.length);
+        return args;
+    }
+}
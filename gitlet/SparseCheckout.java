@@ -0,0 +1,64 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Sparse checkout: .gitlet/sparse-checkout holds glob patterns, one per line, and only
+ * paths matching one of them (the cone) are materialized in the working directory.
+ * Paths outside the cone stay in the index and in new commits unchanged; checkout,
+ * reset and merge do not write them, and status does not report them as deleted.
+ */
+public class SparseCheckout {
+    public static final File SPARSE_FILE = new File("./.gitlet/sparse-checkout");
+
+    static boolean isEnabled() {
+        return Repository.file(SPARSE_FILE).isFile();
+    }
+
+    /**
+     * @return the patterns, empty if sparse checkout is disabled.
+     */
+    static List<String> patterns() {
+        if (!isEnabled()) return new ArrayList<>();
+        List<String> patterns = new ArrayList<>();
+        for (String line : Utils.readContentsAsString(Repository.file(SPARSE_FILE)).split("\n")) {
+            if (!line.isBlank()) patterns.add(line.strip());
+        }
+        return patterns;
+    }
+
+    /**
+     * @param patterns new patterns, null to disable sparse checkout.
+     */
+    static void setPatterns(List<String> patterns) {
+        if (patterns == null) {
+            Repository.file(SPARSE_FILE).delete();
+            return;
+        }
+        Utils.writeContents(Repository.file(SPARSE_FILE), String.join("\n", patterns) + "\n");
+    }
+
+    /**
+     * Compile the current patterns once, for a command testing many paths.
+     * @return a test of whether a path is in the cone, always true if sparse checkout is disabled.
+     */
+    static Predicate<String> cone() {
+        return cone(patterns());
+    }
+
+    static Predicate<String> cone(List<String> patterns) {
+        if (patterns.isEmpty()) return (path) -> true;
+        PathMatcher[] matchers = new PathMatcher[patterns.size()];
+        for (int i = 0; i < matchers.length; i++) {
+            matchers[i] = FileSystems.getDefault().getPathMatcher("glob:" + patterns.get(i));
+        }
+        return (path) -> Arrays.stream(matchers).anyMatch((matcher) -> matcher.matches(Paths.get(path)));
+    }
+}
@@ -0,0 +1,159 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Three-way merge of whole trees, computed in memory before anything is written.
+ * compute() decides the blob of every path and renders the merged (or conflicting)
+ * contents of files changed on both sides; nothing in .gitlet or the working directory
+ * is touched, so a failure half-way leaves the repository as it was.
+ * writeBlobs() then stores the new blobs in one parallel pass, and updateWorkingDir()
+ * rewrites only the working files whose blob differs from the current commit.
+ * A dry run computes without fetching: blobs a partial clone lacks are read in place.
+ */
+public class TreeMerge {
+    /** filename -> blob id of the merge result. */
+    final HashMap<String, String> index = new HashMap<>();
+    /** Files containing conflict regions, sorted. */
+    final TreeSet<String> conflicts = new TreeSet<>();
+    /** blob id -> content, for the blobs created by the merge. */
+    final HashMap<String, byte[]> newBlobs = new HashMap<>();
+
+    /** Merged content of one file changed on both sides. */
+    private static class Merged {
+        final String path, id;
+        final byte[] content;
+        final boolean conflicted;
+
+        Merged(String path, byte[] content, boolean conflicted) {
+            this.path = path;
+            this.id = HashAlgorithm.current().hash(content);
+            this.content = content;
+            this.conflicted = conflicted;
+        }
+    }
+
+    /**
+     * Merge three trees.
+     * @param base filename -> blob id at the split point
+     * @param ours filename -> blob id of the current branch
+     * @param theirs filename -> blob id of the given branch
+     */
+    static TreeMerge compute(Map<String, String> base, Map<String, String> ours, Map<String, String> theirs) {
+        return compute(base, ours, theirs, true);
+    }
+
+    /**
+     * @param fetch false to read blobs missing from a partial clone without storing them.
+     */
+    static TreeMerge compute(Map<String, String> base, Map<String, String> ours, Map<String, String> theirs,
+                             boolean fetch) {
+        TreeMerge result = new TreeMerge();
+        TreeSet<String> paths = new TreeSet<>(base.keySet());
+        paths.addAll(ours.keySet());
+        paths.addAll(theirs.keySet());
+        List<String> bothChanged = new ArrayList<>();
+        List<String> blobsToRead = new ArrayList<>();
+        for (String path : paths) {
+            String baseId = base.get(path), oursId = ours.get(path), theirsId = theirs.get(path);
+            if (Objects.equals(oursId, theirsId) || Objects.equals(baseId, theirsId)) {
+                if (oursId != null) result.index.put(path, oursId);
+            } else if (Objects.equals(baseId, oursId)) {
+                if (theirsId != null) result.index.put(path, theirsId);
+            } else {
+                bothChanged.add(path);
+                for (String id : new String[]{baseId, oursId, theirsId}) {
+                    if (id != null) blobsToRead.add(id);
+                }
+            }
+        }
+
+        if (fetch) Promisor.prefetch(blobsToRead);
+        Function<String, String> read = fetch ? Blob::readFile : Blob::peekFile;
+        // Files merge independently; Diff and Merge3 keep no shared state.
+        Repository repo = Repository.current();
+        List<Merged> merged = bothChanged.parallelStream()
+                .map((path) -> repo.enter(() -> mergeFile(path, base.get(path), ours.get(path), theirs.get(path), read)))
+                .toList();
+        for (Merged file : merged) {
+            result.index.put(file.path, file.id);
+            result.newBlobs.put(file.id, file.content);
+            if (file.conflicted) result.conflicts.add(file.path);
+        }
+        return result;
+    }
+
+    private static Merged mergeFile(String path, String baseId, String oursId, String theirsId,
+                                    Function<String, String> read) {
+        List<String> oursLines = Diff.splitLines(oursId == null ? null : read.apply(oursId));
+        List<String> theirsLines = Diff.splitLines(theirsId == null ? null : read.apply(theirsId));
+        StringWriter out = new StringWriter();
+        boolean conflicted = true;
+        try {
+            if (oursId == null || theirsId == null) {
+                // Modified on one side and deleted on the other: the whole file is one conflict.
+                Merge3.writeConflict(out, oursLines, theirsLines);
+            } else {
+                List<String> baseLines = Diff.splitLines(baseId == null ? null : read.apply(baseId));
+                conflicted = Merge3.merge(baseLines, oursLines, theirsLines, out);
+            }
+        } catch (IOException e) {
+            throw Utils.error(e.getMessage());
+        }
+        return new Merged(path, out.toString().getBytes(StandardCharsets.UTF_8), conflicted);
+    }
+
+    /**
+     * Store every blob created by the merge that .gitlet does not have yet.
+     */
+    void writeBlobs() {
+        File objectsDir = Repository.file(Gitlet.OBJECT_PATH);
+        ObjectFilter filter = ObjectFilter.current();
+        newBlobs.entrySet().parallelStream().forEach((blob) -> {
+            if (filter.contains(blob.getKey())) return;
+            Utils.writeContents(new File(objectsDir, blob.getKey()), blob.getValue());
+            filter.add(blob.getKey());
+        });
+    }
+
+    /**
+     * Bring the working directory from the current commit to the merge result,
+     * writing or deleting only the files whose blob changed.
+     * @param headBlobs filename -> blob id of the current commit
+     */
+    void updateWorkingDir(Map<String, String> headBlobs) {
+        // Outside the sparse-checkout cone only conflicts are written, so they can be resolved.
+        Predicate<String> cone = SparseCheckout.cone();
+        List<String> checkedOut = new ArrayList<>();
+        index.forEach((path, id) -> {
+            if (!id.equals(headBlobs.get(path)) && !newBlobs.containsKey(id) && cone.test(path)) checkedOut.add(id);
+        });
+        Promisor.prefetch(checkedOut);
+        index.forEach((path, id) -> {
+            if (id.equals(headBlobs.get(path))) return;
+            if (!cone.test(path) && !conflicts.contains(path)) return;
+            byte[] content = newBlobs.get(id);
+            if (content != null) {
+                File file = Repository.file("./" + path);
+                WorkTree.createParents(file);
+                Utils.writeContents(file, content);
+            } else {
+                Blob.writeBackFromGit(id, path);
+            }
+        });
+        headBlobs.forEach((path, id) -> {
+            if (!index.containsKey(path) && cone.test(path)) WorkTree.delete(path);
+        });
+    }
+}
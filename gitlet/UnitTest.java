@@ -2,6 +2,21 @@ package gitlet;
 
 import ucb.junit.textui;
 import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
 import static org.junit.Assert.*;
 
 /** The suite of all JUnit tests for the gitlet package.
@@ -21,6 +36,506 @@ public class UnitTest {
         assertEquals(2, 1 + 1);
     }
 
-}
+    /** Apply the edits of A -> B to A, the result must be B. */
+    private static List<String> applyEdits(List<String> a, List<String> b, List<Diff.Edit> edits) {
+        List<String> result = new ArrayList<>();
+        int pos = 0;
+        for (Diff.Edit edit : edits) {
+            result.addAll(a.subList(pos, edit.beginA));
+            result.addAll(b.subList(edit.beginB, edit.endB));
+            pos = edit.endA;
+        }
+        result.addAll(a.subList(pos, a.size()));
+        return result;
+    }
+
+    @Test
+    public void diffTest() {
+        List<String> a = Diff.splitLines("a\nb\nc\na\nb\nb\na\n");
+        List<String> b = Diff.splitLines("c\nb\na\nb\na\nc\n");
+        List<Diff.Edit> edits = Diff.diff(a, b);
+        assertEquals(b, applyEdits(a, b, edits));
+        // Myers' example has an edit script of length 5.
+        int editLength = 0;
+        for (Diff.Edit edit : edits) {
+            editLength += (edit.endA - edit.beginA) + (edit.endB - edit.beginB);
+        }
+        assertEquals(5, editLength);
+
+        assertEquals(0, Diff.diff(a, a).size());
+        assertEquals(b, applyEdits(new ArrayList<>(), b, Diff.diff(new ArrayList<>(), b)));
+    }
+
+    @Test
+    public void diffLargeFewEditsTest() {
+        StringBuilder sa = new StringBuilder(), sb = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            sa.append("line ").append(i % 1000).append('\n');
+            sb.append(i % 20000 == 0 ? "changed\n" : "line " + (i % 1000) + "\n");
+        }
+        List<String> a = Diff.splitLines(sa.toString());
+        List<String> b = Diff.splitLines(sb.toString());
+        List<Diff.Edit> edits = Diff.diff(a, b);
+        assertEquals(5, edits.size());
+        assertEquals(b, applyEdits(a, b, edits));
+    }
+
+    @Test
+    public void xxHash64Test() {
+        XxHash64 empty = new XxHash64();
+        assertEquals(0xEF46DB3751D8E999L, empty.digest());
+        XxHash64 abc = new XxHash64();
+        abc.update("abc".getBytes());
+        assertEquals(0x44BC2CF5AD770999L, abc.digest());
+
+        // Feeding in pieces must give the same hash as one update.
+        byte[] data = new byte[1000];
+        for (int i = 0; i < data.length; i++) data[i] = (byte) (i * 31);
+        XxHash64 whole = new XxHash64();
+        whole.update(data);
+        XxHash64 pieces = new XxHash64();
+        for (int i = 0; i < data.length; i += 7) {
+            pieces.update(Arrays.copyOfRange(data, i, Math.min(data.length, i + 7)));
+        }
+        assertEquals(whole.digest(), pieces.digest());
+    }
+
+    @Test
+    public void changedPathFilterTest() {
+        Set<String> paths = new HashSet<>();
+        for (int i = 0; i < 100; i++) paths.add("file" + i + ".txt");
+        CommitGraph.Entry entry = new CommitGraph.Entry(null, null, CommitGraph.buildFilter(paths));
+        // No false negatives.
+        for (String path : paths) assertTrue(entry.mayHaveChanged(path));
+        // About 1% false positives at 10 bits and 7 probes per path.
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (entry.mayHaveChanged("other" + i + ".txt")) falsePositives++;
+        }
+        assertTrue(falsePositives < 300);
+        assertFalse(new CommitGraph.Entry(null, null, new byte[0]).mayHaveChanged("a.txt"));
+    }
 
+    /** A commit changing more paths than a digest has bytes still gets its filter written. */
+    @Test
+    public void manyChangedPathsTest() throws Exception {
+        Path root = Files.createTempDirectory("gitlet-many-paths");
+        Repository repo = Repository.open(root);
+        assertTrue(repo.init().ok());
+        for (int i = 0; i < 60; i++) {
+            Files.writeString(root.resolve("file" + i + ".txt"), "content " + i + "\n");
+            assertTrue(repo.add("file" + i + ".txt").ok());
+        }
+        assertTrue(repo.commit("sixty files").ok());
+        assertTrue(repo.run("log").output.contains("sixty files"));
+        assertTrue(repo.run("log", "--", "file42.txt").output.contains("sixty files"));
+    }
+
+    /** Path-limited walks read the commit graph, the initial commit's empty filter included, without growing it. */
+    @Test
+    public void commitGraphReadOnlyTest() throws Exception {
+        Path root = Files.createTempDirectory("gitlet-graph");
+        Repository repo = Repository.open(root);
+        assertTrue(repo.init().ok());
+        Files.writeString(root.resolve("a.txt"), "a\n");
+        assertTrue(repo.add("a.txt").ok());
+        assertTrue(repo.commit("add a").ok());
+        Path graph = root.resolve(".gitlet/commit-graph");
+        byte[] before = Files.readAllBytes(graph);
+        for (int i = 0; i < 2; i++) {
+            // As a new process would, read the graph from the file.
+            repo.enter(() -> Repository.current().commitGraph = null);
+            assertTrue(repo.run("log", "--", "a.txt").output.contains("add a"));
+        }
+        assertTrue(Arrays.equals(before, Files.readAllBytes(graph)));
+    }
+
+    /** Repositories in different directories work concurrently and independently. */
+    @Test
+    public void repositoryTest() throws Exception {
+        int count = 4;
+        Repository[] repos = new Repository[count];
+        Thread[] threads = new Thread[count];
+        String[] logs = new String[count];
+        for (int i = 0; i < count; i++) {
+            Path root = Files.createTempDirectory("gitlet-repo");
+            repos[i] = Repository.open(root);
+            assertTrue(repos[i] == Repository.open(root.resolve(".")));
+            int n = i;
+            threads[i] = new Thread(() -> {
+                Repository repo = repos[n];
+                assertTrue(repo.init().ok());
+                Utils.writeContents(repo.getRoot().resolve("f.txt").toFile(), "content " + n + "\n");
+                assertTrue(repo.add("f.txt").ok());
+                assertTrue(repo.commit("commit " + n).ok());
+                logs[n] = repo.log().output;
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) thread.join();
+        for (int i = 0; i < count; i++) {
+            assertTrue(logs[i].contains("commit " + i + "\n"));
+            for (int j = 0; j < count; j++) {
+                if (j != i) assertFalse(logs[i].contains("commit " + j + "\n"));
+            }
+        }
+        Repository.Result missing = repos[0].add("missing.txt");
+        assertEquals("File does not exist.", missing.error);
+        // Nothing was created in the process working directory.
+        assertFalse(new File(Gitlet.GITLET_PATH).exists());
+    }
+
+    /** Poll CONDITION for up to 10 seconds. */
+    private static boolean waitFor(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (System.currentTimeMillis() < deadline) {
+            if (condition.getAsBoolean()) return true;
+            Thread.sleep(20);
+        }
+        return false;
+    }
+
+    /** Once the monitor runs, only journaled paths are examined, and they are picked up. */
+    @Test
+    public void fsMonitorTest() throws Exception {
+        Path root = Files.createTempDirectory("gitlet-monitor");
+        Repository repo = Repository.open(root);
+        assertTrue(repo.init().ok());
+        assertFalse(repo.enter(FsMonitor::isRunning));
+        Thread monitor = new Thread(() -> repo.enter(FsMonitor::run));
+        monitor.setDaemon(true);
+        monitor.start();
+        assertTrue(waitFor(() -> repo.enter(() -> FsMonitor.changes().token != null)));
+        // The first command has no token yet and scans everything.
+        assertNull(repo.enter(FsMonitor::changes).paths);
+        assertTrue(repo.enter(Gitlet::getFileMap).isEmpty());
+        assertTrue(repo.enter(FsMonitor::changes).paths.isEmpty());
+
+        File file = root.resolve("a.txt").toFile();
+        Utils.writeContents(file, "one\n");
+        assertTrue(waitFor(() -> repo.enter(() -> FsMonitor.changes().paths.contains("a.txt"))));
+        String firstId = repo.enter(Gitlet::getFileMap).get("a.txt");
+        assertEquals(HashAlgorithm.SHA1.hash("one\n"), firstId);
+        // A write can be journaled as several events; once they are all seen, nothing is left.
+        assertTrue(waitFor(() -> repo.enter(() -> {
+            Gitlet.getFileMap();
+            return FsMonitor.changes().paths.isEmpty();
+        })));
+        assertEquals(firstId, repo.enter(Gitlet::getFileMap).get("a.txt"));
+
+        Utils.writeContents(file, "two\n");
+        assertTrue(waitFor(() -> repo.enter(() -> FsMonitor.changes().paths.contains("a.txt"))));
+        assertEquals(HashAlgorithm.SHA1.hash("two\n"), repo.enter(Gitlet::getFileMap).get("a.txt"));
+        file.delete();
+        assertTrue(waitFor(() -> repo.enter(() -> FsMonitor.changes().paths.contains("a.txt"))));
+        assertTrue(repo.enter(Gitlet::getFileMap).isEmpty());
 
+        // A new ignore rule hides files that did not change, so the next command scans everything.
+        Utils.writeContents(file, "three\n");
+        assertTrue(waitFor(() -> repo.enter(() -> {
+            Gitlet.getFileMap();
+            return FsMonitor.changes().paths.isEmpty();
+        })));
+        Utils.writeContents(root.resolve(".gitletignore").toFile(), "a.txt\n");
+        assertTrue(waitFor(() -> repo.enter(() -> FsMonitor.changes().paths == null)));
+        assertFalse(repo.enter(Gitlet::getFileMap).containsKey("a.txt"));
+
+        monitor.interrupt();
+        monitor.join();
+        assertFalse(repo.enter(FsMonitor::isRunning));
+    }
+
+    /** Single-entry updates through the journal agree with a plain map, across compactions. */
+    @Test
+    public void indexFileTest() throws Exception {
+        Repository repo = Repository.open(Files.createTempDirectory("gitlet-index"));
+        assertTrue(repo.init().ok());
+        repo.enter(() -> {
+            HashMap<String, String> model = new HashMap<>();
+            for (int i = 0; i < 2000; i++) model.put("file" + i + ".txt", HashAlgorithm.SHA1.hash("v" + i));
+            model.put("\u00e9t\u00e9.txt", HashAlgorithm.SHA1.hash("accent"));
+            IndexFile.writeAll(model);
+            assertEquals(model, IndexFile.readAll());
+            java.util.Random random = new java.util.Random(42);
+            for (int step = 0; step < 500; step++) {
+                String path = "file" + random.nextInt(2500) + ".txt";
+                if (random.nextInt(4) == 0) {
+                    model.remove(path);
+                    IndexFile.remove(path);
+                } else {
+                    String id = HashAlgorithm.SHA1.hash("step" + step);
+                    model.put(path, id);
+                    IndexFile.put(path, id);
+                }
+                assertEquals(model.get(path), IndexFile.lookup(path));
+            }
+            for (String path : model.keySet()) assertEquals(model.get(path), IndexFile.lookup(path));
+            assertNull(IndexFile.lookup("missing.txt"));
+            assertEquals(model, IndexFile.readAll());
+
+            // A record torn by a crash is dropped, and the next one is read on its own.
+            model.put("before-tear.txt", HashAlgorithm.SHA1.hash("before"));
+            IndexFile.put("before-tear.txt", model.get("before-tear.txt"));
+            try {
+                Files.write(Repository.file(IndexFile.JOURNAL_FILE).toPath(), new byte[]{'+', 1, 2, 3},
+                        java.nio.file.StandardOpenOption.APPEND);
+            } catch (java.io.IOException e) {
+                throw new RuntimeException(e);
+            }
+            model.put("after-tear.txt", HashAlgorithm.SHA1.hash("after"));
+            IndexFile.put("after-tear.txt", model.get("after-tear.txt"));
+            assertEquals(model.get("after-tear.txt"), IndexFile.lookup("after-tear.txt"));
+            assertEquals(model, IndexFile.readAll());
+        });
+    }
+
+    /** The walker lists nested files, skips .gitlet and ignored paths, and delete prunes empty directories. */
+    @Test
+    public void workTreeTest() throws Exception {
+        Path root = Files.createTempDirectory("gitlet-worktree");
+        Repository repo = Repository.open(root);
+        assertTrue(repo.init().ok());
+        Files.writeString(root.resolve(".gitletignore"), "# build outputs\nout\n*.class\ndocs/*.tmp\n");
+        Files.createDirectories(root.resolve("src/a/b"));
+        Files.createDirectories(root.resolve("out/x"));
+        Files.createDirectories(root.resolve("docs"));
+        for (String path : new String[]{"top.txt", "src/Main.java", "src/Main.class", "src/a/b/deep.txt",
+                                        "out/x/gen.txt", "docs/readme.md", "docs/notes.tmp"}) {
+            Files.writeString(root.resolve(path), path);
+        }
+        List<String> expected = List.of(".gitletignore", "docs/readme.md", "src/Main.java", "src/a/b/deep.txt", "top.txt");
+        assertEquals(expected, repo.enter(WorkTree::list));
+        WorkTree.Ignore ignore = repo.enter(WorkTree::ignore);
+        assertTrue(ignore.test("out/x/gen.txt"));
+        assertTrue(ignore.test(".gitlet/HEAD"));
+        assertFalse(ignore.test("src/Main.java"));
+
+        repo.enter(() -> WorkTree.delete("src/a/b/deep.txt"));
+        assertFalse(Files.exists(root.resolve("src/a")));
+        assertTrue(Files.isDirectory(root.resolve("src")));
+    }
+
+    /** The object filter never misses a stored object, rarely reports an absent one, and survives other writers. */
+    @Test
+    public void objectFilterTest() throws Exception {
+        Path root = Files.createTempDirectory("gitlet-filter");
+        Repository repo = Repository.open(root);
+        assertTrue(repo.init().ok());
+        repo.enter(() -> {
+            List<String> stored = new ArrayList<>();
+            for (int i = 0; i < 3000; i++) stored.add(Blob.writeBytes(("object " + i).getBytes()));
+            ObjectFilter.close();
+            ObjectFilter filter = ObjectFilter.current();
+            for (String id : stored) assertTrue(filter.mightContain(id));
+            int falsePositives = 0;
+            for (int i = 0; i < 10000; i++) {
+                if (filter.mightContain(HashAlgorithm.SHA1.hash("absent " + i))) falsePositives++;
+            }
+            assertTrue(falsePositives < 300);
+            ObjectFilter.close();
+        });
+        // An object written behind gitlet's back makes the saved filter stale, so it is rebuilt.
+        String outside = HashAlgorithm.SHA1.hash("written by another process");
+        Thread.sleep(10);
+        Files.writeString(root.resolve(".gitlet/objects/" + outside), "x");
+        repo.enter(() -> {
+            assertTrue(ObjectFilter.exists(outside));
+            ObjectFilter.close();
+        });
+        // One written right after the save may leave the mtime as it was: the racy filter is rebuilt.
+        repo.enter(() -> {
+            Blob.writeBytes("saved".getBytes());
+            ObjectFilter.close();
+        });
+        String racy = HashAlgorithm.SHA1.hash("written in the same tick");
+        Files.writeString(root.resolve(".gitlet/objects/" + racy), "x");
+        repo.enter(() -> {
+            assertTrue(ObjectFilter.exists(racy));
+            ObjectFilter.close();
+        });
+        // Queries alone do not write the filter file unless stats are enabled, once it is no longer racy.
+        Thread.sleep(1100);
+        repo.enter(() -> {
+            ObjectFilter.current();
+            ObjectFilter.close();
+        });
+        byte[] saved = Files.readAllBytes(root.resolve(".gitlet/objects-filter"));
+        repo.enter(() -> {
+            assertFalse(ObjectFilter.exists(HashAlgorithm.SHA1.hash("absent")));
+            ObjectFilter.close();
+        });
+        assertTrue(Arrays.equals(saved, Files.readAllBytes(root.resolve(".gitlet/objects-filter"))));
+    }
+
+    /** archive writes a commit as a tar, gzipped or not, with long paths intact, and leaves the working tree alone. */
+    @Test
+    public void archiveTest() throws Exception {
+        Path root = Files.createTempDirectory("gitlet-archive");
+        Repository repo = Repository.open(root);
+        assertTrue(repo.init().ok());
+        String deep = "d".repeat(60) + "/" + "e".repeat(60) + "/deep.txt";
+        String longest = ("x".repeat(60) + "/").repeat(5) + "long.txt";
+        HashMap<String, String> files = new HashMap<>();
+        files.put("a.txt", "a\n");
+        files.put("dir/b.txt", "b".repeat(1000));
+        files.put(deep, "deep\n");
+        files.put(longest, "long\n");
+        for (String path : files.keySet()) {
+            Files.createDirectories(root.resolve(path).getParent());
+            Files.writeString(root.resolve(path), files.get(path));
+        }
+        assertTrue(repo.add(".").ok());
+        assertTrue(repo.commit("files").ok());
+        Files.writeString(root.resolve("a.txt"), "changed\n");
+
+        assertTrue(repo.archive("master", "-o", "snap.tar").ok());
+        assertTrue(repo.archive("master", "-o", "snap.tar.gz").ok());
+        assertEquals(files, readTar(Files.readAllBytes(root.resolve("snap.tar"))));
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(root.resolve("snap.tar.gz")))) {
+            assertEquals(files, readTar(in.readAllBytes()));
+        }
+        assertEquals("changed\n", Files.readString(root.resolve("a.txt")));
+        assertEquals("No commit with that id exists.", repo.archive("nosuch").error);
+    }
+
+    /** @return path -> content of every file of a tar archive. */
+    private static HashMap<String, String> readTar(byte[] tar) {
+        HashMap<String, String> files = new HashMap<>();
+        String paxPath = null;
+        for (int pos = 0; tar[pos] != 0; ) {
+            String name = field(tar, pos, 100), prefix = field(tar, pos + 345, 155);
+            int size = Integer.parseInt(field(tar, pos + 124, 12), 8);
+            String content = new String(tar, pos + 512, size, StandardCharsets.UTF_8);
+            if (tar[pos + 156] == 'x') {
+                paxPath = content.substring(content.indexOf("path=") + 5, content.length() - 1);
+            } else {
+                files.put(paxPath != null ? paxPath : prefix.isEmpty() ? name : prefix + "/" + name, content);
+                paxPath = null;
+            }
+            pos += 512 + (size + 511) / 512 * 512;
+        }
+        return files;
+    }
+
+    private static String field(byte[] header, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) end++;
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    /** merge --dry-run in a partial clone neither fetches missing blobs nor updates the file-hash cache. */
+    @Test
+    public void mergeDryRunTest() throws Exception {
+        Repository remote = Repository.open(Files.createTempDirectory("gitlet-dry-remote"));
+        Path remoteFile = remote.getRoot().resolve("f.txt");
+        assertTrue(remote.init().ok());
+        Files.writeString(remoteFile, "1\n2\n3\n4\n5\n");
+        assertTrue(remote.add("f.txt").ok());
+        assertTrue(remote.commit("base").ok());
+        assertTrue(remote.branch("other").ok());
+        assertTrue(remote.checkout("other").ok());
+        Files.writeString(remoteFile, "one\n2\n3\n4\n5\n");
+        assertTrue(remote.add("f.txt").ok());
+        assertTrue(remote.commit("first line").ok());
+        assertTrue(remote.checkout("master").ok());
+        Files.writeString(remoteFile, "1\n2\n3\n4\nfive\n");
+        assertTrue(remote.add("f.txt").ok());
+        assertTrue(remote.commit("last line").ok());
+
+        Path root = Files.createTempDirectory("gitlet-dry-clone");
+        Repository clone = Repository.open(root);
+        assertTrue(clone.run("clone", remote.getRoot().resolve(".gitlet").toString(), "--filter=blob:none").ok());
+        assertTrue(clone.status().ok());
+        Files.writeString(root.resolve("f.txt"), "1\n2\n3\n4\nfive\nsix\n");
+        List<String> objects = Utils.plainFilenamesIn(root.resolve(".gitlet/objects").toFile());
+        byte[] fileCache = Files.readAllBytes(root.resolve(".gitlet/filecache"));
+
+        Repository.Result result = clone.merge("--dry-run", "origin/other");
+        assertTrue(result.ok());
+        assertEquals("Automatic merge would succeed.\n", result.output);
+        assertEquals(objects, Utils.plainFilenamesIn(root.resolve(".gitlet/objects").toFile()));
+        assertTrue(Arrays.equals(fileCache, Files.readAllBytes(root.resolve(".gitlet/filecache"))));
+    }
+
+    /** A rebase that conflicts on a later commit writes nothing, not even the commits before it. */
+    @Test
+    public void rebaseConflictTest() throws Exception {
+        Repository repo = Repository.open(Files.createTempDirectory("gitlet-rebase"));
+        Path f = repo.getRoot().resolve("f.txt");
+        Path g = repo.getRoot().resolve("g.txt");
+        assertTrue(repo.init().ok());
+        Files.writeString(f, "1\n2\n3\n4\n5\n");
+        Files.writeString(g, "a\nb\nc\nd\ne\n");
+        assertTrue(repo.add("f.txt").ok());
+        assertTrue(repo.add("g.txt").ok());
+        assertTrue(repo.commit("base").ok());
+        assertTrue(repo.branch("other").ok());
+        assertTrue(repo.checkout("other").ok());
+        Files.writeString(f, "one\n2\n3\n4\n5\n");
+        Files.writeString(g, "A\nb\nc\nd\ne\n");
+        assertTrue(repo.add("f.txt").ok());
+        assertTrue(repo.add("g.txt").ok());
+        assertTrue(repo.commit("other firsts").ok());
+        assertTrue(repo.checkout("master").ok());
+        // Merges cleanly with other, into a new blob.
+        Files.writeString(g, "a\nb\nc\nd\nE\n");
+        assertTrue(repo.add("g.txt").ok());
+        assertTrue(repo.commit("last of g").ok());
+        // Conflicts with other.
+        Files.writeString(f, "uno\n2\n3\n4\n5\n");
+        assertTrue(repo.add("f.txt").ok());
+        assertTrue(repo.commit("first of f").ok());
+
+        File objectsDir = repo.getRoot().resolve(".gitlet/objects").toFile();
+        List<String> objects = Utils.plainFilenamesIn(objectsDir);
+        String head = repo.enter(Gitlet::getHeadSHA1);
+        assertEquals("Rebase conflict in f.txt; nothing was changed.", repo.rebase("other").error);
+        assertEquals(objects, Utils.plainFilenamesIn(objectsDir));
+        assertEquals(head, repo.enter(Gitlet::getHeadSHA1));
+        assertEquals("uno\n2\n3\n4\n5\n", Files.readString(f));
+
+        assertTrue(repo.run("reset", head).ok());
+        assertEquals("Cannot rebase a detached HEAD.", repo.rebase("other").error);
+    }
+
+    /** A command failing with an unexpected exception does not end the batch, which still flushes. */
+    @Test
+    public void batchRuntimeExceptionTest() throws Exception {
+        Path root = Files.createTempDirectory("gitlet-batch");
+        Repository repo = Repository.open(root);
+        assertTrue(repo.init().ok());
+        Files.writeString(root.resolve("f.txt"), "one\n");
+        assertTrue(repo.add("f.txt").ok());
+        assertTrue(repo.commit("one").ok());
+        // A head commit that does not decode makes status fail with a NullPointerException.
+        String head = repo.enter(Gitlet::getHeadSHA1);
+        Files.writeString(root.resolve(".gitlet/objects/" + head), "junk");
+        Files.deleteIfExists(root.resolve(".gitlet/commit-graph"));
+        Files.writeString(root.resolve("g.txt"), "two\n");
+        Files.writeString(root.resolve("script.txt"), "status\nadd g.txt\n");
+
+        Repository.Result result = repo.run("batch", "script.txt");
+        assertTrue(result.ok());
+        assertFalse(result.output.isEmpty());
+        assertTrue(repo.enter(IndexFile::readAll).containsKey("g.txt"));
+    }
+
+    /** An entry appended after a torn last line starts a line of its own. */
+    @Test
+    public void reflogTornLineTest() throws Exception {
+        Path root = Files.createTempDirectory("gitlet-reflog");
+        Repository repo = Repository.open(root);
+        assertTrue(repo.init().ok());
+        assertTrue(repo.branch("other").ok());
+        Files.writeString(root.resolve("a.txt"), "a\n");
+        assertTrue(repo.add("a.txt").ok());
+        assertTrue(repo.commit("add a").ok());
+        // A crash in the middle of the new id.
+        String torn = "0".repeat(40) + " 17924f63affd";
+        Files.writeString(root.resolve(".gitlet/logs/HEAD"), torn, StandardOpenOption.APPEND);
+        assertTrue(repo.checkout("other").ok());
+        String reflog = repo.run("reflog").output;
+        assertTrue(reflog.startsWith(reflog.substring(0, 7) + " HEAD@{0}: checkout: other\n"));
+        assertTrue(reflog.contains(" HEAD@{1}: commit: add a\n"));
+    }
+}
@@ -12,10 +12,7 @@ import java.io.Serializable;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.Formatter;
 import java.util.List;
 
 
@@ -30,27 +27,10 @@ class Utils {
     static final int UID_LENGTH = 40;
 
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
-     *  be any mixture of byte arrays and Strings. */
+     *  be any mixture of byte arrays and Strings.  Object ids use
+     *  HashAlgorithm.current() instead, which may not be SHA-1. */
     static String sha1(Object... vals) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (Object val : vals) {
-                if (val instanceof byte[]) {
-                    md.update((byte[]) val);
-                } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
-                } else {
-                    throw new IllegalArgumentException("improper type to sha1");
-                }
-            }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
-            }
-            return result.toString();
-        } catch (NoSuchAlgorithmException excp) {
-            throw new IllegalArgumentException("System does not support SHA-1");
-        }
+        return HashAlgorithm.SHA1.hash(vals);
     }
 
     /** Returns the SHA-1 hash of the concatenation of the strings in
@@ -0,0 +1,246 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * The working tree: every file under the root of the repository, subdirectories included,
+ * named by its path from the root with '/' separators, e.g. "src/Main.java".
+ *
+ * .gitlet is never part of it, and neither is any path matching a glob of .gitletignore,
+ * one per line, '#' starting a comment. A pattern without '/' is matched against each name
+ * in a path, so "out" or "*.class" skip build outputs at any depth; a pattern with '/' is
+ * matched against the whole path. Ignoring a directory skips everything under it.
+ *
+ * list() walks the tree with one fork-join task per directory, so the directory reads
+ * of a large tree overlap instead of running one after another.
+ */
+public class WorkTree {
+    public static final File IGNORE_FILE = new File("./.gitletignore");
+
+    /** The ignore rules, compiled once for a whole walk. */
+    static class Ignore implements Predicate<String> {
+        private final List<PathMatcher> nameMatchers = new ArrayList<>();
+        private final List<PathMatcher> pathMatchers = new ArrayList<>();
+
+        Ignore(List<String> patterns) {
+            for (String pattern : patterns) {
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+                if (pattern.contains("/")) pathMatchers.add(matcher);
+                else nameMatchers.add(matcher);
+            }
+        }
+
+        /**
+         * @return true if the entry PATH itself is ignored, its directories aside.
+         */
+        boolean matches(String path) {
+            if (path.equals(".gitlet")) return true;
+            if (nameMatchers.isEmpty() && pathMatchers.isEmpty()) return false;
+            Path p = Paths.get(path);
+            Path name = p.getFileName();
+            for (PathMatcher matcher : nameMatchers) {
+                if (matcher.matches(name)) return true;
+            }
+            for (PathMatcher matcher : pathMatchers) {
+                if (matcher.matches(p)) return true;
+            }
+            return false;
+        }
+
+        /**
+         * @return true if PATH or one of its directories is ignored.
+         */
+        @Override
+        public boolean test(String path) {
+            for (Path p = Paths.get(path); p != null; p = p.getParent()) {
+                if (matches(p.toString().replace(File.separatorChar, '/'))) return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * @return the rules of .gitletignore in the current repository.
+     */
+    static Ignore ignore() {
+        List<String> patterns = new ArrayList<>();
+        File ignoreFile = Repository.file(IGNORE_FILE);
+        if (ignoreFile.isFile()) {
+            for (String line : Utils.readContentsAsString(ignoreFile).split("\n")) {
+                line = line.strip();
+                if (!line.isEmpty() && !line.startsWith("#")) patterns.add(line);
+            }
+        }
+        return new Ignore(patterns);
+    }
+
+    /**
+     * @return every file of the working tree, sorted.
+     */
+    static List<String> list() {
+        return list(true);
+    }
+
+    private static List<String> list(boolean parallel) {
+        Path root = Repository.file("./").toPath();
+        Ignore ignore = ignore();
+        List<String> files = parallel
+                ? ForkJoinPool.commonPool().invoke(new Walk(root, "", ignore))
+                : walkSequential(root, ignore);
+        Collections.sort(files);
+        return files;
+    }
+
+    /** List one directory, and fork a task for each of its subdirectories. */
+    private static class Walk extends RecursiveTask<List<String>> {
+        private static final long serialVersionUID = 1L;
+        private final Path dir;
+        /** Path of dir from the root, with a trailing '/', or "" for the root. */
+        private final String prefix;
+        private final Ignore ignore;
+
+        Walk(Path dir, String prefix, Ignore ignore) {
+            this.dir = dir;
+            this.prefix = prefix;
+            this.ignore = ignore;
+        }
+
+        @Override
+        protected List<String> compute() {
+            List<String> files = new ArrayList<>();
+            List<Walk> subdirs = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    String path = prefix + entry.getFileName();
+                    if (ignore.matches(path)) continue;
+                    // Symbolic links to directories are not followed, so the walk cannot loop.
+                    BasicFileAttributes attrs =
+                            Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    if (attrs.isDirectory()) {
+                        subdirs.add(new Walk(entry, path + "/", ignore));
+                    } else if (attrs.isRegularFile() || (attrs.isSymbolicLink() && Files.isRegularFile(entry))) {
+                        files.add(path);
+                    }
+                }
+            } catch (IOException e) {
+                throw Utils.error(e.getMessage());
+            }
+            for (Walk subdir : invokeAll(subdirs)) files.addAll(subdir.join());
+            return files;
+        }
+    }
+
+    private static List<String> walkSequential(Path root, Ignore ignore) {
+        List<String> files = new ArrayList<>();
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (dir.equals(root)) return FileVisitResult.CONTINUE;
+                    return ignore.matches(relative(root, dir)) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    String path = relative(root, file);
+                    if (attrs.isRegularFile() && !ignore.matches(path)) files.add(path);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw Utils.error(e.getMessage());
+        }
+        return files;
+    }
+
+    private static String relative(Path root, Path path) {
+        return root.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Create the missing directories of a working file about to be written.
+     */
+    static void createParents(File file) {
+        File parent = file.getParentFile();
+        if (parent != null) parent.mkdirs();
+    }
+
+    /**
+     * Delete a working file, then each of its directories that it left empty.
+     * Like Utils.restrictedDelete, refuses to run outside a gitlet repository.
+     * @param path path from the root of the repository
+     */
+    static void delete(String path) {
+        if (!Repository.file(Gitlet.GITLET_PATH).isDirectory()) {
+            throw new IllegalArgumentException("not .gitlet working directory");
+        }
+        File file = Repository.file("./" + path);
+        if (file.isDirectory() || !file.delete()) return;
+        // File.delete fails on a directory that is not empty, which ends the loop.
+        for (Path dir = Paths.get(path).getParent(); dir != null; dir = dir.getParent()) {
+            if (!Repository.file("./" + dir).delete()) break;
+        }
+    }
+
+    /**
+     * A rough benchmark of the walk on a deep and a wide tree of the same size:
+     *      java gitlet.WorkTree [files]
+     * builds both in a temporary directory and prints the best time of a few rounds
+     * of the parallel walk and of a single-threaded Files.walkFileTree.
+     */
+    public static void main(String... args) throws IOException {
+        final int rounds = 5;
+        int files = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+        Path deep = Files.createTempDirectory("gitlet-deep");
+        Path wide = Files.createTempDirectory("gitlet-wide");
+        // Deep: chains of 50 nested directories, 10 files in each. Wide: 100 directories under the root.
+        Path dir = deep;
+        for (int i = 0; i < files; i++) {
+            if (i % 500 == 0) dir = deep;
+            if (i % 10 == 0) dir = Files.createDirectory(dir.resolve("d" + i));
+            Files.writeString(dir.resolve("f" + i), "");
+        }
+        for (int i = 0; i < files; i++) {
+            dir = wide.resolve("d" + (i % 100));
+            if (i < 100) Files.createDirectory(dir);
+            Files.writeString(dir.resolve("f" + i), "");
+        }
+        for (Path root : new Path[]{deep, wide}) {
+            Repository repo = Repository.open(root);
+            for (boolean parallel : new boolean[]{true, false}) {
+                long best = Long.MAX_VALUE;
+                int count = 0;
+                for (int i = 0; i < rounds; i++) {
+                    long start = System.nanoTime();
+                    count = repo.enter(() -> list(parallel)).size();
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                System.out.printf("%s %s: %d files in %.1f ms%n", root == deep ? "deep" : "wide",
+                        parallel ? "parallel" : "walkFileTree", count, best / 1e6);
+            }
+        }
+        for (Path root : new Path[]{deep, wide}) {
+            try (Stream<Path> paths = Files.walk(root)) {
+                paths.sorted(Collections.reverseOrder()).forEach((path) -> path.toFile().delete());
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package gitlet;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Streaming XXH64, a fast non-cryptographic 64-bit hash.
+ * Only used to tell whether a working file changed since it was last hashed;
+ * object ids always come from HashAlgorithm.
+ */
+public class XxHash64 {
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+    private static final int STRIPE = 32;
+
+    private final long seed;
+    private long v1, v2, v3, v4;
+    private long totalLength;
+    /** Bytes not yet forming a full stripe. */
+    private final ByteBuffer pending = ByteBuffer.allocate(STRIPE).order(ByteOrder.LITTLE_ENDIAN);
+
+    public XxHash64() {
+        this(0);
+    }
+
+    public XxHash64(long seed) {
+        this.seed = seed;
+        this.v1 = seed + P1 + P2;
+        this.v2 = seed + P2;
+        this.v3 = seed;
+        this.v4 = seed - P1;
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * P2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * P1;
+    }
+
+    private static long mergeRound(long acc, long val) {
+        acc ^= round(0, val);
+        return acc * P1 + P4;
+    }
+
+    private void stripe(ByteBuffer in) {
+        v1 = round(v1, in.getLong());
+        v2 = round(v2, in.getLong());
+        v3 = round(v3, in.getLong());
+        v4 = round(v4, in.getLong());
+    }
+
+    /**
+     * Consume all remaining bytes of BUF.
+     */
+    public void update(ByteBuffer buf) {
+        ByteBuffer in = buf.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        buf.position(buf.limit());
+        totalLength += in.remaining();
+        if (pending.position() > 0) {
+            while (pending.hasRemaining() && in.hasRemaining()) pending.put(in.get());
+            if (pending.hasRemaining()) return;
+            pending.flip();
+            stripe(pending);
+            pending.clear();
+        }
+        while (in.remaining() >= STRIPE) stripe(in);
+        pending.put(in);
+    }
+
+    public void update(byte[] bytes) {
+        update(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * @return the hash of everything consumed so far.
+     */
+    public long digest() {
+        long h;
+        if (totalLength >= STRIPE) {
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7)
+                    + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = mergeRound(h, v1);
+            h = mergeRound(h, v2);
+            h = mergeRound(h, v3);
+            h = mergeRound(h, v4);
+        } else {
+            h = seed + P5;
+        }
+        h += totalLength;
+
+        ByteBuffer tail = pending.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        tail.flip();
+        while (tail.remaining() >= 8) {
+            h ^= round(0, tail.getLong());
+            h = Long.rotateLeft(h, 27) * P1 + P4;
+        }
+        if (tail.remaining() >= 4) {
+            h ^= (tail.getInt() & 0xFFFFFFFFL) * P1;
+            h = Long.rotateLeft(h, 23) * P2 + P3;
+        }
+        while (tail.hasRemaining()) {
+            h ^= (tail.get() & 0xFFL) * P5;
+            h = Long.rotateLeft(h, 11) * P1;
+        }
+
+        h ^= h >>> 33;
+        h *= P2;
+        h ^= h >>> 29;
+        h *= P3;
+        h ^= h >>> 32;
+        return h;
+    }
+}